@@ -0,0 +1,80 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * one update of stereo line (mixing of period and writing to null output) like in mixer thread.
+ * Score is nanoseconds per frame. Stereo voices with volume below 1.0 is the path of music
+ * @author vuvk
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(SoundSystem.PERIOD_SIZE)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixerBenchmark {
+    @Param({"1", "8", "64"})
+    int voices;
+
+    /** 1 - mono sounds panned to stereo line, 2 - stereo sounds */
+    @Param({"1", "2"})
+    int channels;
+
+    @Param({"1.0", "0.5"})
+    double volume;
+
+    private SoundList sounds;
+    private SoundMixer mixer;
+
+    @Setup
+    public void setup() throws IOException {
+        SoundBuffer buffer = new SoundBuffer(new ByteArrayInputStream(Waves.createWave(channels, 0.5)));
+        sounds = new SoundList(voices);
+        for (int i = 0; i < voices; ++i) {
+            Sound sound = new Sound(buffer);
+            sound.setLooping(true);
+            sound.setVolume(volume);
+            sound.setPan((i % 3) - 1);
+            sounds.add(sound);
+        }
+
+        AudioOutput output = new NullBackend().open(SoundSystem.getAudioStereoFormat());
+        mixer = new SoundMixer(output, SoundSystem.PERIOD_SIZE, new SoundCache(SoundSystem.PERIOD_SIZE * 8, output));
+    }
+
+    @Benchmark
+    public void updateLine() {
+        mixer.update(sounds);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * one update of stereo line with looped music: reading from prefetch buffer, volume and bus of music.
+ * Score is nanoseconds per frame. Decoders are stopped and music is decoded ahead between updates,
+ * so decoding isn't measured and mixer never waits for it
+ * @author vuvk
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(SoundSystem.PERIOD_SIZE)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MusicBenchmark {
+    @Param({"1.0", "0.5"})
+    double volume;
+
+    private File file;
+    private Music music;
+    private SoundList sounds;
+    private SoundMixer mixer;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("rss-music", ".wav");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(Waves.createWave(2, 2.0));
+        }
+
+        music = new Music(file);
+        music.setLooping(true);
+        music.setVolume(volume);
+        sounds = new SoundList(1);
+        sounds.add(music);
+        SoundWorkers.stopDecoders();
+
+        AudioOutput output = new NullBackend().open(SoundSystem.getAudioStereoFormat());
+        mixer = new SoundMixer(output, SoundSystem.PERIOD_SIZE, new SoundCache(SoundSystem.PERIOD_SIZE * 8, output));
+    }
+
+    @Setup(Level.Invocation)
+    public void decode() {
+        SoundWorkers.fillPrefetches();
+    }
+
+    @TearDown
+    public void tearDown() {
+        music.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void updateLine() {
+        mixer.update(sounds);
+    }
+}
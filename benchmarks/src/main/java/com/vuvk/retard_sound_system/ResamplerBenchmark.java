@@ -0,0 +1,72 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * conversion of one period of stereo sound to sample rate of system - cost of one streamed voice
+ * @author vuvk
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResamplerBenchmark {
+    @Param({"22050", "32000", "48000"})
+    int rate;
+
+    @Param({"LINEAR", "SINC"})
+    ResampleQuality quality;
+
+    private Resampler resampler;
+    private final byte[] period = new byte[SoundSystem.PERIOD_SIZE * 4];
+
+    @Setup
+    public void setup() {
+        AudioFormat format = new AudioFormat(rate, 16, 2, true, false);
+        byte[] pcm = Waves.createPcm(format, 10.0);
+        AudioInputStream source = new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / 4);
+        resampler = new Resampler(source, SoundSystem.SAMPLE_RATE, quality);
+        resampler.mark(0);
+    }
+
+    @Benchmark
+    public byte[] period() throws IOException {
+        if (resampler.read(period, 0, period.length) == -1) {
+            resampler.reset();
+            resampler.read(period, 0, period.length);
+        }
+        return period;
+    }
+}
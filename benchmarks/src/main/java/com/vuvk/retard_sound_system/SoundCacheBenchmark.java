@@ -0,0 +1,68 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * caching of mixed periods before null output. Score is nanoseconds per frame
+ * @author vuvk
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(SoundSystem.PERIOD_SIZE)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SoundCacheBenchmark {
+    private static final int FRAME_SIZE = 4;
+
+    private final byte[] period = new byte[SoundSystem.PERIOD_SIZE * FRAME_SIZE];
+    private SoundCache cache;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < period.length; ++i) {
+            period[i] = (byte) i;
+        }
+        AudioOutput output = new NullBackend().open(SoundSystem.getAudioStereoFormat());
+        cache = new SoundCache(period.length * 4, output);
+    }
+
+    /** cache is written to output when it is full */
+    @Benchmark
+    public void write() {
+        cache.write(period, 0, period.length);
+    }
+
+    @Benchmark
+    public void writeAndDrain() {
+        cache.write(period, 0, period.length);
+        cache.drain();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * sounds for benchmarks
+ * @author vuvk
+ */
+final class Waves {
+    private Waves() {}
+
+    /** sine wave in wav format */
+    static byte[] createWave(int channels, double seconds) throws IOException {
+        AudioFormat format = (channels == 1) ? SoundSystem.getAudioMonoFormat() : SoundSystem.getAudioStereoFormat();
+        byte[] pcm = createPcm(format, seconds);
+        int frames = pcm.length / format.getFrameSize();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, frames), AudioFileFormat.Type.WAVE, out);
+        return out.toByteArray();
+    }
+
+    /** sine wave in raw 16-bit format */
+    static byte[] createPcm(AudioFormat format, double seconds) {
+        int channels = format.getChannels();
+        int frames = (int) (format.getSampleRate() * seconds);
+        byte[] pcm = new byte[frames * format.getFrameSize()];
+        for (int f = 0, i = 0; f < frames; ++f) {
+            short value = (short) (Math.sin(f * 2.0 * Math.PI * 440.0 / format.getSampleRate()) * 16000);
+            for (int c = 0; c < channels; ++c) {
+                pcm[i++] = (byte) value;
+                pcm[i++] = (byte) (value >> 8);
+            }
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.utils;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * reading of whole 1 MB stream by chunks
+ * @author vuvk
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FastByteArrayInputStreamBenchmark {
+    private static final int SIZE = 1 << 20;
+
+    @Param({"2", "64", "4096"})
+    int chunk;
+
+    private FastByteArrayInputStream in;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[SIZE];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        in = new FastByteArrayInputStream(data);
+        buffer = new byte[chunk];
+    }
+
+    @Benchmark
+    public int read() {
+        in.reset();
+        int total = 0;
+        int readed;
+        while ((readed = in.read(buffer, 0, chunk)) > 0) {
+            total += readed;
+        }
+        return total;
+    }
+}
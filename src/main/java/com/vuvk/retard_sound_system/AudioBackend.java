@@ -0,0 +1,36 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * maker of outputs for {@link SoundSystem#start(AudioBackend)}
+ * @see LineBackend
+ * @see NullBackend
+ * @see MemoryBackend
+ * @see WavFileBackend
+ * @author vuvk
+ */
+public interface AudioBackend {
+    /**
+     * open output for mixed sound
+     * @param format format of mixed sound (mono or stereo)
+     */
+    AudioOutput open(AudioFormat format) throws LineUnavailableException, IOException;
+}
@@ -0,0 +1,50 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * where mixed sound is written - line of sound card, file, memory...
+ * Only one mixer thread writes to output
+ * @author vuvk
+ */
+public interface AudioOutput {
+    AudioFormat getFormat();
+
+    /**
+     * @return count of bytes, which can be written without blocking
+     */
+    int available();
+
+    /**
+     * @return size of device buffer or Integer.MAX_VALUE for output without device, 
+     * which is written as fast as sound is mixed
+     */
+    int getBufferSize();
+
+    /**
+     * write mixed sound. It can block while device plays previous data
+     */
+    void write(byte[] data, int offset, int length);
+
+    /**
+     * wait while written data is played
+     */
+    void drain();
+
+    void close();
+}
@@ -0,0 +1,95 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * group of sounds with common volume. Sounds are mixed to own bus, 
+ * every bus is mixed to {@link #MASTER} once per period. 
+ * By default sounds play to {@link #SFX}, musics and playlists - to {@link #MUSIC}
+ * @author vuvk
+ */
+public enum Bus {
+    /** sum of all buses, its volume is {@link SoundSystem#setMasterVolume(double)} */
+    MASTER,
+    SFX,
+    MUSIC,
+    VOICE,
+    UI;
+
+    private volatile double volume = 1.0;
+    private volatile boolean muted = false;
+    private volatile boolean solo = false;
+
+    public double getVolume() {
+        return volume;
+    }
+
+    /**
+     * volume of all sounds of bus. It is changed smoothly during one period of mixer
+     * @param value from 0.0 to 1.0
+     */
+    public Bus setVolume(double value) {
+        if (value < 0.0) {
+            value = 0.0;
+        } else if (value > 1.0) {
+            value = 1.0;
+        }
+        volume = value;
+        return this;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    /**
+     * @param muted true - sounds of bus are played silently, volume is kept
+     */
+    public Bus setMuted(boolean muted) {
+        this.muted = muted;
+        return this;
+    }
+
+    public boolean isSolo() {
+        return solo;
+    }
+
+    /**
+     * @param solo true - only buses in solo are heard. Doesn't work for {@link #MASTER}
+     */
+    public Bus setSolo(boolean solo) {
+        this.solo = solo;
+        return this;
+    }
+
+    /**
+     * @return some bus is in solo
+     */
+    static boolean isAnySolo() {
+        return SFX.solo || MUSIC.solo || VOICE.solo || UI.solo;
+    }
+
+    /**
+     * @param anySolo some bus is in solo
+     * @return gain of bus with mute and solo
+     */
+    float getGain(boolean anySolo) {
+        if (muted || (anySolo && this != MASTER && !solo)) {
+            return 0.0f;
+        }
+        return (float) volume;
+    }
+}
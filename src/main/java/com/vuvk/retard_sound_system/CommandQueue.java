@@ -0,0 +1,131 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded lock-free queue of commands from many threads to one mixer thread.
+ * Doesn't allocate memory
+ * @author vuvk
+ */
+class CommandQueue {
+    static final int PLAY  = 1;
+    static final int STOP  = 2;
+    static final int CLEAR = 3;
+    static final int STOP_ALL = 4;
+
+    private final int mask;
+    /** number of turn for every slot - producers and consumer wait it */
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<SoundBasis> sounds;
+    private final int[] commands;
+    /** frame of command */
+    private final long[] frames;
+    private final AtomicLong tail = new AtomicLong();
+    /** only for consumer */
+    private long head = 0;
+
+    private int  polledCommand;
+    private SoundBasis polledSound;
+    private long polledFrame;
+
+    /**
+     * @param capacity max count of commands in queue (rounded up to power of two)
+     */
+    CommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        sounds = new AtomicReferenceArray<>(size);
+        commands = new int[size];
+        frames = new long[size];
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * add command to queue. Can be called from any thread
+     * @return false if queue is full
+     */
+    boolean offer(int command, SoundBasis sound, long frame) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        commands[index] = command;
+        frames[index] = frame;
+        sounds.lazySet(index, sound);
+        // публикуем слот для потребителя
+        sequences.set(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * take next command. Only for mixer thread
+     * @return false if queue is empty
+     */
+    boolean poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+
+        polledCommand = commands[index];
+        polledSound = sounds.get(index);
+        polledFrame = frames[index];
+        sounds.lazySet(index, null);
+        // освобождаем слот для производителей
+        sequences.set(index, head + mask + 1);
+        ++head;
+        return true;
+    }
+
+    int getPolledCommand() {
+        return polledCommand;
+    }
+
+    SoundBasis getPolledSound() {
+        return polledSound;
+    }
+
+    long getPolledFrame() {
+        return polledFrame;
+    }
+
+    /**
+     * only for mixer thread
+     */
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+}
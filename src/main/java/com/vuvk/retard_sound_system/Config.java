@@ -0,0 +1,201 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * settings of sound system for {@link SoundSystem#start(Config)}. 
+ * Setters check values and throw IllegalArgumentException for unsupported ones
+ * @author vuvk
+ */
+public final class Config {
+    static final int MIN_SAMPLE_RATE = 8000;
+    static final int MAX_SAMPLE_RATE = 192000;
+    static final int MIN_PERIOD_SIZE = 32;
+    static final int MAX_PERIOD_SIZE = 8192;
+    static final int MAX_LINE_BUFFER_MILLIS = 2000;
+    static final int MAX_SOUNDS = 4096;
+    static final int MAX_CACHE_FRAMES = 65536;
+
+    private int sampleRate = SoundSystem.SAMPLE_RATE;
+    private int periodSize = SoundSystem.PERIOD_SIZE;
+    private int lineBufferMillis = 0;
+    private int maxSounds = SoundSystem.MAX_SOUNDS;
+    private OutputMode outputMode = OutputMode.CACHED;
+    private int cacheFrames = SoundSystem.CACHE_FRAMES;
+    private boolean singleLine = true;
+    private int threadPriority = Thread.NORM_PRIORITY;
+    private AudioBackend backend = null;
+    private ResampleQuality resampleQuality = ResampleQuality.SINC;
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate frames per second of mixing, sounds are decoded to it (default 44100).
+     * Sounds loaded before start with other rate are played with wrong speed
+     */
+    public Config setSampleRate(int sampleRate) {
+        check(sampleRate >= MIN_SAMPLE_RATE && sampleRate <= MAX_SAMPLE_RATE, 
+              "sample rate must be from " + MIN_SAMPLE_RATE + " to " + MAX_SAMPLE_RATE + ": " + sampleRate);
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public int getPeriodSize() {
+        return periodSize;
+    }
+
+    /**
+     * @param periodSize count of frames mixed at once (default 512). Less - lower latency, more CPU
+     */
+    public Config setPeriodSize(int periodSize) {
+        check(periodSize >= MIN_PERIOD_SIZE && periodSize <= MAX_PERIOD_SIZE, 
+              "period size must be from " + MIN_PERIOD_SIZE + " to " + MAX_PERIOD_SIZE + " frames: " + periodSize);
+        this.periodSize = periodSize;
+        return this;
+    }
+
+    public int getLineBufferMillis() {
+        return lineBufferMillis;
+    }
+
+    /**
+     * @param millis wanted size of line buffer in milliseconds, 0 - default of sound card 
+     * ({@link SoundSystem#LOW_LATENCY_BUFFER_MILLIS} in {@link OutputMode#LOW_LATENCY} mode)
+     */
+    public Config setLineBufferMillis(int millis) {
+        check(millis >= 0 && millis <= MAX_LINE_BUFFER_MILLIS, 
+              "line buffer must be from 0 to " + MAX_LINE_BUFFER_MILLIS + " ms: " + millis);
+        lineBufferMillis = millis;
+        return this;
+    }
+
+    public int getMaxSounds() {
+        return maxSounds;
+    }
+
+    /**
+     * @param maxSounds count of sounds mixed at once in every line (default 64)
+     */
+    public Config setMaxSounds(int maxSounds) {
+        check(maxSounds >= 1 && maxSounds <= MAX_SOUNDS, 
+              "count of sounds must be from 1 to " + MAX_SOUNDS + ": " + maxSounds);
+        this.maxSounds = maxSounds;
+        return this;
+    }
+
+    public OutputMode getOutputMode() {
+        return outputMode;
+    }
+
+    /**
+     * @param outputMode how periods are written to line (default {@link OutputMode#CACHED})
+     */
+    public Config setOutputMode(OutputMode outputMode) {
+        check(outputMode != null, "output mode is null");
+        this.outputMode = outputMode;
+        return this;
+    }
+
+    public int getCacheFrames() {
+        return cacheFrames;
+    }
+
+    /**
+     * @param frames size of cache in {@link OutputMode#CACHED} mode (default 1024)
+     */
+    public Config setCacheFrames(int frames) {
+        check(frames >= 1 && frames <= MAX_CACHE_FRAMES, 
+              "cache must be from 1 to " + MAX_CACHE_FRAMES + " frames: " + frames);
+        cacheFrames = frames;
+        return this;
+    }
+
+    public boolean isSingleLine() {
+        return singleLine;
+    }
+
+    /**
+     * @param singleLine true - mono and stereo sounds are mixed into one stereo line 
+     * (mono sounds can be panned), false - mono sounds have own line (default true)
+     */
+    public Config setSingleLine(boolean singleLine) {
+        this.singleLine = singleLine;
+        return this;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * @param priority priority of mixer threads (default {@link Thread#NORM_PRIORITY})
+     */
+    public Config setThreadPriority(int priority) {
+        check(priority >= Thread.MIN_PRIORITY && priority <= Thread.MAX_PRIORITY, 
+              "thread priority must be from " + Thread.MIN_PRIORITY + " to " + Thread.MAX_PRIORITY + ": " + priority);
+        threadPriority = priority;
+        return this;
+    }
+
+    public AudioBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @param backend where mixed sound goes, null - sound card ({@link LineBackend}) 
+     */
+    public Config setBackend(AudioBackend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public ResampleQuality getResampleQuality() {
+        return resampleQuality;
+    }
+
+    /**
+     * @param quality filter for sounds with other sample rate than system (default {@link ResampleQuality#SINC}).
+     * Applied to sounds loaded after start
+     */
+    public Config setResampleQuality(ResampleQuality quality) {
+        check(quality != null, "resample quality is null");
+        resampleQuality = quality;
+        return this;
+    }
+
+    Config copy() {
+        Config config = new Config();
+        config.sampleRate = sampleRate;
+        config.periodSize = periodSize;
+        config.lineBufferMillis = lineBufferMillis;
+        config.maxSounds = maxSounds;
+        config.outputMode = outputMode;
+        config.cacheFrames = cacheFrames;
+        config.singleLine = singleLine;
+        config.threadPriority = threadPriority;
+        config.backend = backend;
+        config.resampleQuality = resampleQuality;
+        return config;
+    }
+
+    private static void check(boolean valid, String message) {
+        if (!valid) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+}
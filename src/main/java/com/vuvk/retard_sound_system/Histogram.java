@@ -0,0 +1,106 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free histogram with power of two buckets. Recording doesn't allocate memory
+ * @author vuvk
+ */
+public final class Histogram {
+    private static final int BUCKETS = 64;
+
+    /** bucket i keeps values from 2^(i-1) to 2^i - 1 */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {}
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // другой поток записал максимум - пробуем снова
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long cnt = count.get();
+        return (cnt > 0) ? (double) sum.get() / cnt : 0.0;
+    }
+
+    /**
+     * @param percent from 0.0 to 100.0
+     * @return upper bound of values, which are not bigger than percent of recorded values (precision is 2 times)
+     */
+    public long getPercentile(double percent) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long needed = (long) Math.ceil(total * Math.max(0.0, Math.min(100.0, percent)) / 100.0);
+        long counted = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            counted += buckets.get(i);
+            if (counted >= needed && counted > 0) {
+                return Math.min((i == 0) ? 0 : (1L << i) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return copy, which isn't changed by recording
+     */
+    Histogram copy() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < BUCKETS; ++i) {
+            histogram.buckets.set(i, buckets.get(i));
+        }
+        histogram.count.set(count.get());
+        histogram.sum.set(sum.get());
+        histogram.max.set(max.get());
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + (long) getMean() + " p99=" + getPercentile(99.0) + " max=" + getMax();
+    }
+}
@@ -0,0 +1,100 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * plays mixed sound by sound card through Java Sound API. It is used by default
+ * @author vuvk
+ */
+public class LineBackend implements AudioBackend {
+    private final int bufferMillis;
+
+    /**
+     * line with default buffer of sound card
+     */
+    public LineBackend() {
+        this(0);
+    }
+
+    /**
+     * @param bufferMillis wanted size of line buffer in milliseconds (smaller - less latency),
+     * sound card can give other size. 0 - default size
+     */
+    public LineBackend(int bufferMillis) {
+        this.bufferMillis = bufferMillis;
+    }
+
+    @Override
+    public AudioOutput open(AudioFormat format) throws LineUnavailableException {
+        SourceDataLine line = AudioSystem.getSourceDataLine(format);
+        if (bufferMillis > 0) {
+            int frames = (int) (format.getFrameRate() * bufferMillis / 1000);
+            line.open(format, frames * format.getFrameSize());
+        } else {
+            line.open();
+        }
+        line.start();
+
+        // for init line
+        line.write(new byte[format.getFrameSize()], 0, format.getFrameSize());
+        line.drain();
+
+        return new LineOutput(line);
+    }
+
+    private static class LineOutput implements AudioOutput {
+        private final SourceDataLine line;
+
+        LineOutput(SourceDataLine line) {
+            this.line = line;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return line.getFormat();
+        }
+
+        @Override
+        public int available() {
+            return line.available();
+        }
+
+        @Override
+        public int getBufferSize() {
+            return line.getBufferSize();
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            line.write(data, offset, length);
+        }
+
+        @Override
+        public void drain() {
+            line.drain();
+        }
+
+        @Override
+        public void close() {
+            line.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * what happens in one mixed line. Only its mixer thread records
+ * @author vuvk
+ */
+public final class LineMetrics {
+    /** nanoseconds of mixing of one period */
+    private final Histogram mixTime;
+    /** bytes waiting for playing in output before writing of period */
+    private final Histogram fill;
+    private final AtomicLong starvations;
+    private volatile int targetFill;
+    private volatile int voices;
+
+    LineMetrics() {
+        this(new Histogram(), new Histogram(), 0, 0, 0);
+    }
+
+    private LineMetrics(Histogram mixTime, Histogram fill, long starvations, int targetFill, int voices) {
+        this.mixTime = mixTime;
+        this.fill = fill;
+        this.starvations = new AtomicLong(starvations);
+        this.targetFill = targetFill;
+        this.voices = voices;
+    }
+
+    void recordMix(long nanos, int voices) {
+        mixTime.record(nanos);
+        this.voices = voices;
+    }
+
+    void recordFill(int bytes) {
+        fill.record(bytes);
+    }
+
+    void addStarvation(int targetFill) {
+        starvations.incrementAndGet();
+        this.targetFill = targetFill;
+    }
+
+    void setTargetFill(int targetFill) {
+        this.targetFill = targetFill;
+    }
+
+    /**
+     * @return nanoseconds of mixing of one period, count is count of mixed periods
+     */
+    public Histogram getMixTime() {
+        return mixTime;
+    }
+
+    /**
+     * @return bytes waiting for playing in output when mixer wants to write (low value - danger of stutter)
+     */
+    public Histogram getFill() {
+        return fill;
+    }
+
+    /**
+     * @return how many times line played everything before next period was mixed (it was heard as click)
+     */
+    public long getStarvations() {
+        return starvations.get();
+    }
+
+    /**
+     * @return bytes kept in line by mixer, it is latency of line ({@link OutputMode#LOW_LATENCY})
+     */
+    public int getTargetFill() {
+        return targetFill;
+    }
+
+    /**
+     * @return count of sounds in line after last period
+     */
+    public int getVoices() {
+        return voices;
+    }
+
+    /**
+     * @return copy, which isn't changed by recording
+     */
+    LineMetrics copy() {
+        return new LineMetrics(mixTime.copy(), fill.copy(), getStarvations(), getTargetFill(), getVoices());
+    }
+
+    @Override
+    public String toString() {
+        return "mixTime[" + mixTime + "] fill[" + fill + "] starvations=" + getStarvations() + " targetFill=" + getTargetFill() + " voices=" + getVoices();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import com.vuvk.utils.FastByteArrayOutputStream;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * keeps mixed sound in memory as fast as it is mixed. For tests of mixing without sound card
+ * @author vuvk
+ */
+public class MemoryBackend implements AudioBackend {
+    private volatile MemoryOutput mono   = null;
+    private volatile MemoryOutput stereo = null;
+
+    @Override
+    public AudioOutput open(AudioFormat format) {
+        MemoryOutput output = new MemoryOutput(format);
+        if (format.getChannels() == 1) {
+            mono = output;
+        } else {
+            stereo = output;
+        }
+        return output;
+    }
+
+    /**
+     * @return mixed sound of stereo output (all sounds in {@link Config#setSingleLine(boolean)} mode)
+     */
+    public byte[] getBytes() {
+        return getBytes(SoundSystem.STEREO_CHANNELS);
+    }
+
+    /**
+     * @param channels 1 - mixed sound of mono output, 2 - of stereo output
+     * @return copy of mixed sound (16 bit, little endian) or empty array if output wasn't opened
+     */
+    public byte[] getBytes(int channels) {
+        MemoryOutput output = (channels == 1) ? mono : stereo;
+        return (output != null) ? output.toByteArray() : new byte[0];
+    }
+
+    /**
+     * forget mixed sound
+     */
+    public void reset() {
+        MemoryOutput output = mono;
+        if (output != null) {
+            output.reset();
+        }
+        output = stereo;
+        if (output != null) {
+            output.reset();
+        }
+    }
+
+    private static class MemoryOutput implements AudioOutput {
+        private final AudioFormat format;
+        private final FastByteArrayOutputStream data = new FastByteArrayOutputStream(1 << 16);
+
+        MemoryOutput(AudioFormat format) {
+            this.format = format;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public int available() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            synchronized (data) {
+                data.write(buffer, offset, length);
+            }
+        }
+
+        byte[] toByteArray() {
+            synchronized (data) {
+                return data.toByteArray();
+            }
+        }
+
+        void reset() {
+            synchronized (data) {
+                data.reset();
+            }
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -18,23 +18,15 @@ package com.vuvk.retard_sound_system;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
 
 /**
- *
+ * long streamed sound (ogg, mp3). It is decoded ahead in worker threads and mixed
+ * with other sounds, so it doesn't hold own line or thread
  * @author vuvk
  */
 public final class Music extends SoundBasis {
-    private static final Logger LOG = Logger.getLogger(Music.class.getName());    
-    private static final int BUFFER_SIZE = 10240;
-    
-    private SourceDataLine line;
+    /** music isn't stolen by sounds with default priority */
+    static final int DEFAULT_PRIORITY = 100;
     
     public Music(String path) {
         this(new File(path));
@@ -42,108 +34,39 @@ public final class Music extends SoundBasis {
     
     public Music(File file) {
         prepareStream(file);
-        SoundSystem.MUSICS.add(this);
+        prepareMusic();
     }   
     
     public Music(URL url) {
         prepareStream(url);
-        SoundSystem.MUSICS.add(this);
+        prepareMusic();
     }
     
     public Music(InputStream in) {
         prepareStream(in);
-        SoundSystem.MUSICS.add(this);
+        prepareMusic();
+    }
+    
+    private void prepareMusic() {
+        setPriority(DEFAULT_PRIORITY);
+        setBus(Bus.MUSIC);
+        startPrefetch();
     }
     
     @Override
     public Music play(final boolean looping) {        
-        super.play(looping);
-        
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                final byte[] buffer = new byte[BUFFER_SIZE];
-
-                while (inputAudioStream != null && 
-                       line             != null && 
-                       isPlaying()) {
-                    
-                    long prev = System.nanoTime(); 
-                    
-                    int cnt = 0;                   
-                    
-                    if ((cnt = read(buffer)) != -1) {
-                        // apply volume
-                        for (int i = 0; i < buffer.length; i += 2) {                                
-                            byte low  = buffer[i];
-                            byte high = buffer[i + 1];
-
-                            int value = (short)(((high & 0xFF) << 8) | (low & 0xFF));
-                            value *= getVolume();                                
-
-                            buffer[i]     = (byte) value;
-                            buffer[i + 1] = (byte) (value >> 8);
-                        }
-
-                        line.write(buffer, 0, cnt); 
-                    } else {
-                        break;
-                    }
-                    
-                    long delta = System.nanoTime() - prev;
-                    if (delta < 90) {
-                        try {
-                            Thread.sleep(0, (int) (90 - delta));
-                        } catch (InterruptedException ignored) {}
-                    }
-                }
-
-                if (isLooping()) {
-                    play();
-                } else {
-                    stop();
-                }
-            }
-        }, "RSS Update Music Thread").start();
-        
+        setLooping(looping);
+        setPlaying(true);
+        prepareRewind();
+        // перемотка выполняется потоком микшера
+        SoundSystem.playSound(this);
         return this;
     }
     
-    private void prepareLine() { 
-        if (inputAudioStream != null) {
-            AudioFormat format = inputAudioStream.getFormat();
-
-            try {
-                line = AudioSystem.getSourceDataLine(format);
-                line.open(format);
-                line.start();
-            } catch (LineUnavailableException ex) {
-                LOG.log(Level.SEVERE, null, ex);
-            }
-        }
-    }
-         
     @Override
-    protected void prepareStream(File file) {
-        super.prepareStream(file);
-        prepareLine();
-    }
-    
-    @Override 
-    protected void prepareStream(URL url) {
-        super.prepareStream(url);
-        prepareLine();
-    }
-    
-    @Override 
-    protected void prepareStream(InputStream in) {
-        super.prepareStream(in);
-        prepareLine();
-    }
-    
-    @Override 
-    protected void prepareStream(AudioInputStream in) {
-        super.prepareStream(in);
-        prepareLine();
+    public Music stop() {
+        super.stop();
+        SoundSystem.stopSound(this);
+        return this;
     }
 }
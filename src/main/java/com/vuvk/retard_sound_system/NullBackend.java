@@ -0,0 +1,75 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * throws mixed sound away as fast as it is mixed. For machines without sound card and for profiling
+ * @author vuvk
+ */
+public class NullBackend implements AudioBackend {
+    private final AtomicLong written = new AtomicLong();
+
+    @Override
+    public AudioOutput open(AudioFormat format) {
+        return new NullOutput(format);
+    }
+
+    /**
+     * @return count of bytes mixed by all outputs
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    private class NullOutput implements AudioOutput {
+        private final AudioFormat format;
+
+        NullOutput(AudioFormat format) {
+            this.format = format;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public int available() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            written.addAndGet(length);
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
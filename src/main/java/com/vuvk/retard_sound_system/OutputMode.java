@@ -0,0 +1,29 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * how mixed periods are written to line
+ * @author vuvk
+ */
+public enum OutputMode {
+    /** periods are collected in cache and written by big blocks, line is filled fully */
+    CACHED,
+    /** every period is written to line, line is filled fully */
+    DIRECT,
+    /** small line buffer, every period is written to line, line keeps so little sound as it can without starvation */
+    LOW_LATENCY
+}
@@ -0,0 +1,232 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * disk cache of decoded sounds. Key of sound is hash of source file, engine format and quality of resampling,
+ * so changed source file gets new key and old one is removed when cache is full
+ * @author vuvk
+ */
+final class PcmDiskCache {
+    private static final Logger LOG = Logger.getLogger(PcmDiskCache.class.getName());
+
+    private static final int MAGIC = 0x52535350;    // RSSP
+    private static final int VERSION = 1;
+    /** magic, version, sample rate, bits, channels, signed, big endian, length */
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 1 + 1 + 4;
+    private static final String EXTENSION = ".pcm";
+    private static final int CHUNK_SIZE = 65536;
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory folder for cached files
+     * @param maxSize max summary size of cached files in bytes
+     */
+    PcmDiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.log(Level.WARNING, "Can''t create folder for sound cache: {0}", directory);
+        }
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param source sound file
+     * @return key of decoded sound or null if file can't be readed
+     */
+    String getKey(File source) {
+        try (InputStream in = new FileInputStream(source)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, n);
+            }
+            // формат движка и качество передискретизации - часть ключа
+            digest.update((SoundSystem.getSampleRate() + "/" + SoundSystem.SAMPLE_SIZE_IN_BITS + "/" +
+                           SoundSystem.SIGNED + "/" + SoundSystem.BIG_ENDIAN + "/" +
+                           SoundSystem.getConfig().getResampleQuality()).getBytes("UTF-8"));
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16))
+                   .append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
+    File getFile(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    /**
+     * read format of cached sound
+     * @return format or null if there is no valid cached sound
+     */
+    AudioFormat readFormat(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            float sampleRate = in.readFloat();
+            int   bits       = in.readInt();
+            int   channels   = in.readInt();
+            boolean signed    = in.readBoolean();
+            boolean bigEndian = in.readBoolean();
+            int   length     = in.readInt();
+            if (file.length() != HEADER_SIZE + (long) length) {
+                return null;
+            }
+
+            // недавно использованные удаляются последними
+            file.setLastModified(System.currentTimeMillis());
+            return new AudioFormat(sampleRate, bits, channels, signed, bigEndian);
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * save decoded sound to cache and remove old sounds if cache is full
+     * @param data decoded sound from position to limit
+     */
+    void store(String key, AudioFormat format, ByteBuffer data) {
+        File file = getFile(key);
+        // свой временный файл у каждого потока - параллельная запись не смешивается
+        File temp;
+        try {
+            temp = File.createTempFile(key, ".tmp", directory);
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+            return;
+        }
+
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeFloat(format.getSampleRate());
+            header.writeInt(format.getSampleSizeInBits());
+            header.writeInt(format.getChannels());
+            header.writeBoolean(format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED);
+            header.writeBoolean(format.isBigEndian());
+            header.writeInt(data.remaining());
+            header.flush();
+
+            FileChannel channel = out.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+            temp.delete();
+            return;
+        }
+
+        file.delete();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+
+        trim();
+    }
+
+    /**
+     * open channel to decoded sound, it is positioned after header
+     */
+    FileChannel open(String key) throws IOException {
+        FileChannel channel = new RandomAccessFile(getFile(key), "r").getChannel();
+        channel.position(HEADER_SIZE);
+        return channel;
+    }
+
+    /**
+     * remove least recently used sounds while cache is bigger than max size
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(EXTENSION)) {
+                size += file.length();
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (file.getName().endsWith(EXTENSION)) {
+                long length = file.length();
+                if (file.delete()) {
+                    size -= length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * queue of musics played one by one without gaps or with crossfade.
+ * Next track is decoded ahead by workers, so changing of tracks doesn't stop mixer
+ * @author vuvk
+ */
+public final class Playlist extends SoundBasis {
+    private static final Logger LOG = Logger.getLogger(Playlist.class.getName());
+    private static final int FRAME_SIZE = 4;
+    /** count of frames handled at once */
+    private static final int CHUNK_FRAMES = SoundSystem.PERIOD_SIZE;
+
+    private final List<Music> tracks = new CopyOnWriteArrayList<>();
+    private volatile int crossfadeMillis = 0;
+    /** count of {@link #next()} calls */
+    private final AtomicInteger skipRequests = new AtomicInteger();
+    private volatile Music currentTrack = null;
+
+    // только для потока микшера
+    private int skipHandled = 0;
+    private int index = -1;
+    private Music current = null;
+    /** track, which fades in over current one */
+    private Music incoming = null;
+    private int incomingIndex = -1;
+    private int fadeFrames = 0;
+    private int fadeDone = 0;
+    private long position = 0;
+    private final byte[] currentData  = new byte[CHUNK_FRAMES * FRAME_SIZE];
+    private final byte[] incomingData = new byte[CHUNK_FRAMES * FRAME_SIZE];
+    private final byte[] monoData     = new byte[CHUNK_FRAMES * 2];
+
+    public Playlist() {
+        prepareFormat(SoundSystem.getAudioStereoFormat());
+        setPriority(Music.DEFAULT_PRIORITY);
+        setBus(Bus.MUSIC);
+    }
+
+    public Playlist(Music ... tracks) {
+        this();
+        for (Music track : tracks) {
+            add(track);
+        }
+    }
+
+    /**
+     * add track to end of playlist. Track mustn't be played by itself
+     * @throws IllegalArgumentException if track can't be decoded or rewound
+     */
+    public Playlist add(Music track) {
+        if (track != null) {
+            if (track.getFormat() == null || track.getChannels() < 1 || track.getChannels() > 2) {
+                throw new IllegalArgumentException("track can't be decoded");
+            }
+            if (!track.isRewindable()) {
+                throw new IllegalArgumentException("track must be opened from file or URL, stream can't be rewound");
+            }
+            track.setLooping(false);
+            prepareTrack(track);
+            tracks.add(track);
+        }
+        return this;
+    }
+
+    public List<Music> getTracks() {
+        return tracks;
+    }
+
+    /**
+     * @return playing track or null
+     */
+    public Music getCurrentTrack() {
+        return currentTrack;
+    }
+
+    /**
+     * set length of crossfade between tracks
+     * @param millis milliseconds of crossfade, 0 - gapless playing (default)
+     */
+    public Playlist setCrossfade(int millis) {
+        crossfadeMillis = Math.max(0, millis);
+        for (Music track : tracks) {
+            prepareTrack(track);
+        }
+        return this;
+    }
+
+    public int getCrossfade() {
+        return crossfadeMillis;
+    }
+
+    /**
+     * go to next track (with crossfade)
+     */
+    public Playlist next() {
+        skipRequests.incrementAndGet();
+        return this;
+    }
+
+    @Override
+    public Playlist play(final boolean looping) {
+        setLooping(looping);
+        setPlaying(true);
+        // перемотка выполняется потоком микшера
+        SoundSystem.playSound(this);
+        return this;
+    }
+
+    @Override
+    public Playlist stop() {
+        super.stop();
+        SoundSystem.stopSound(this);
+        return this;
+    }
+
+    /**
+     * start playlist from first track. Only for mixer thread, use {@link #play()} from others
+     */
+    @Override
+    public Playlist rewind() {
+        if (incoming != null) {
+            incoming.rewind();
+            incoming = null;
+        }
+        if (current != null) {
+            current.rewind();
+            current = null;
+        }
+        index = -1;
+        position = 0;
+        currentTrack = null;
+        skipHandled = skipRequests.get();
+        return this;
+    }
+
+    @Override
+    long getStreamPosition() {
+        return position;
+    }
+
+    @Override
+    int read(byte[] buffer, int offset, int length) {
+        try {
+            return readTracks(buffer, offset, length);
+        } catch (RuntimeException ex) {
+            // ошибка трека не должна остановить поток микшера
+            LOG.log(Level.SEVERE, null, ex);
+            setLooping(false);
+            setPlaying(false);
+            return -1;
+        }
+    }
+
+    private int readTracks(byte[] buffer, int offset, int length) {
+        final int requests = skipRequests.get();
+        if (requests != skipHandled) {
+            skipHandled = requests;
+            skipTrack();
+        }
+
+        final int frames = length / FRAME_SIZE;
+        // пустые треки не должны зациклить чтение
+        final int maxChanges = 2 * tracks.size() + 2;
+        int changes = 0;
+        int done = 0;
+        while (done < frames) {
+            if (current == null && !startTrack(nextIndex(index))) {
+                break;
+            }
+
+            final int chunk = Math.min(frames - done, CHUNK_FRAMES);
+            final int readed = (incoming != null) ? readCrossfade(buffer, offset + done * FRAME_SIZE, chunk)
+                                                  : readCurrent(buffer, offset + done * FRAME_SIZE, chunk);
+            if (readed > 0) {
+                done += readed;
+                changes = 0;
+            } else if (readed == 0 || ++changes > maxChanges) {
+                // трек ещё не декодирован
+                break;
+            }
+        }
+
+        if (done == 0 && current == null) {
+            return -1;
+        }
+        position += done * FRAME_SIZE;
+        return done * FRAME_SIZE;
+    }
+
+    /**
+     * @return count of frames, 0 if track isn't ready or -1 if track is changed
+     */
+    private int readCurrent(byte[] buffer, int offset, int frames) {
+        final int nextIndex = nextIndex(index);
+        // единственный трек зацикливается декодером без паузы
+        current.setLooping(nextIndex == index);
+
+        final int crossfade = (int) ((long) crossfadeMillis * SoundSystem.getSampleRate() / 1000);
+        if (nextIndex != -1 && nextIndex != index) {
+            final int remaining = current.getRemaining();
+            if (remaining >= 0) {
+                final int remainingFrames = remaining / current.getFormat().getFrameSize();
+                if (remainingFrames <= crossfade) {
+                    startCrossfade(nextIndex, remainingFrames);
+                    return -1;
+                }
+                if (crossfade > 0) {
+                    // наложение начинается точно за crossfade кадров до конца
+                    frames = Math.min(frames, remainingFrames - crossfade);
+                }
+            }
+        }
+
+        final int readed = readTrack(current, currentData, frames);
+        if (readed == -1) {
+            finishTrack();
+            return -1;
+        }
+
+        final float gain = current.gainLeft;
+        updateGain(current, readed);
+        copy(currentData, buffer, offset, readed, gain, current.gainLeft);
+        return readed;
+    }
+
+    /**
+     * @return count of frames, 0 if track isn't ready or -1 if crossfade is finished
+     */
+    private int readCrossfade(byte[] buffer, int offset, int frames) {
+        frames = Math.min(frames, fadeFrames - fadeDone);
+        // новый трек задаёт темп, у старого недостающее - тишина
+        final int readedIn = (frames > 0) ? readTrack(incoming, incomingData, frames) : -1;
+        if (readedIn == -1) {
+            finishCrossfade();
+            return -1;
+        }
+        if (readedIn == 0) {
+            return 0;
+        }
+
+        int readedOut = readTrack(current, currentData, readedIn);
+        if (readedOut < 0) {
+            readedOut = 0;
+        }
+
+        final float volumeOut = current.gainLeft;
+        final float volumeIn  = incoming.gainLeft;
+        updateGain(current, readedIn);
+        updateGain(incoming, readedIn);
+        final float stepOut = (current.gainLeft  - volumeOut) / readedIn;
+        final float stepIn  = (incoming.gainLeft - volumeIn)  / readedIn;
+        final float step = 1.0f / fadeFrames;
+        float fade = fadeDone * step;
+        for (int f = 0, i = 0; f < readedIn; ++f, fade += step) {
+            final float gainOut = (1.0f - fade) * (volumeOut + stepOut * f);
+            final float gainIn  = fade * (volumeIn + stepIn * f);
+            for (int c = 0; c < 2; ++c, i += 2) {
+                float value = sample(incomingData, i) * gainIn;
+                if (f < readedOut) {
+                    value += sample(currentData, i) * gainOut;
+                }
+                write(buffer, offset + i, value);
+            }
+        }
+
+        fadeDone += readedIn;
+        if (fadeDone >= fadeFrames) {
+            finishCrossfade();
+        }
+        return readedIn;
+    }
+
+    /**
+     * switch to next track by {@link #next()}
+     */
+    private void skipTrack() {
+        if (incoming != null) {
+            finishCrossfade();
+            return;
+        }
+        if (current == null) {
+            return;
+        }
+
+        final int nextIndex = nextIndex(index);
+        final int crossfade = (int) ((long) crossfadeMillis * SoundSystem.getSampleRate() / 1000);
+        if (nextIndex != -1 && nextIndex != index && crossfade > 0) {
+            startCrossfade(nextIndex, crossfade);
+        } else {
+            finishTrack();
+            startTrack(nextIndex);
+        }
+    }
+
+    private int nextIndex(int from) {
+        final int count = tracks.size();
+        if (count == 0) {
+            return -1;
+        }
+        if (from + 1 < count) {
+            return from + 1;
+        }
+        return isLooping() ? 0 : -1;
+    }
+
+    private boolean startTrack(int trackIndex) {
+        if (trackIndex == -1) {
+            return false;
+        }
+
+        current = tracks.get(trackIndex);
+        current.gainReset = true;
+        updateGain(current, 0);
+        index = trackIndex;
+        currentTrack = current;
+        return true;
+    }
+
+    /**
+     * tail of track must be decoded before begin of crossfade. Buffer is grown by workers, so any thread can call it
+     */
+    private void prepareTrack(Music track) {
+        track.growPrefetch(crossfadeMillis + SoundSystem.getPrefetchMillis());
+    }
+
+    /**
+     * rewind ended track, so its begin is decoded again for next playing
+     */
+    private void finishTrack() {
+        current.setLooping(false);
+        current.rewind();
+        current = null;
+        currentTrack = null;
+    }
+
+    private void startCrossfade(int trackIndex, int frames) {
+        if (frames <= 0) {
+            // без наложения - следующий трек сразу за текущим
+            finishTrack();
+            startTrack(trackIndex);
+            return;
+        }
+
+        incoming = tracks.get(trackIndex);
+        incoming.gainReset = true;
+        updateGain(incoming, 0);
+        incomingIndex = trackIndex;
+        fadeFrames = frames;
+        fadeDone = 0;
+    }
+
+    private void finishCrossfade() {
+        finishTrack();
+        // громкость нового трека продолжает меняться плавно
+        current = incoming;
+        index = incomingIndex;
+        currentTrack = current;
+        incoming = null;
+    }
+
+    /**
+     * read frames of track as stereo
+     * @return count of frames, 0 if track isn't ready or -1 if track is ended
+     */
+    private int readTrack(Music track, byte[] data, int frames) {
+        final int trackFrameSize = track.getChannels() << 1;
+        if (trackFrameSize == 0) {
+            return -1;
+        }
+        final byte[] target = (trackFrameSize == FRAME_SIZE) ? data : monoData;
+        final int length = frames * trackFrameSize;
+
+        int offset = 0;
+        while (offset < length) {
+            int readed = track.read(target, offset, length - offset);
+            if (readed > 0) {
+                offset += readed;
+            } else if (readed == -1 && offset == 0) {
+                return -1;
+            } else {
+                break;
+            }
+        }
+
+        final int readed = offset / trackFrameSize;
+        if (target == monoData) {
+            for (int f = 0, i = 0, n = 0; f < readed; ++f, i += 2, n += 4) {
+                data[n    ] = data[n + 2] = monoData[i    ];
+                data[n + 1] = data[n + 3] = monoData[i + 1];
+            }
+        }
+        return readed;
+    }
+
+    /**
+     * move gain of track to its volume like mixer does it for sounds, so change of volume has no clicks.
+     * Track isn't played by mixer itself, so its fields of mixer are free
+     * @param frames count of frames read in this chunk
+     */
+    private static void updateGain(Music track, int frames) {
+        final double volume = track.getVolume();
+        if (track.gainReset) {
+            track.gainReset = false;
+            track.gainLeft  = (float) volume;
+            track.mixVolume = volume;
+            track.rampFrames = 0;
+            return;
+        }
+
+        if (volume != track.mixVolume) {
+            track.mixVolume = volume;
+            final int fadeFrames = track.getFadeFrames();
+            track.rampFrames = (fadeFrames > 0) ? fadeFrames : CHUNK_FRAMES;
+        }
+
+        if (track.rampFrames > 0) {
+            final int count = Math.min(frames, track.rampFrames);
+            final float part = (float) count / track.rampFrames;
+            track.rampFrames -= count;
+            if (track.rampFrames == 0) {
+                track.gainLeft = (float) volume;
+            } else {
+                track.gainLeft += ((float) volume - track.gainLeft) * part;
+            }
+        }
+    }
+
+    /**
+     * @param from gain at first frame
+     * @param to gain after last frame
+     */
+    private static void copy(byte[] data, byte[] buffer, int offset, int frames, float from, float to) {
+        final int length = frames * FRAME_SIZE;
+        if (from == 1.0f && to == 1.0f) {
+            System.arraycopy(data, 0, buffer, offset, length);
+            return;
+        }
+
+        final float step = (to - from) / frames;
+        float gain = from;
+        for (int f = 0, i = 0; f < frames; ++f, gain += step) {
+            for (int c = 0; c < 2; ++c, i += 2) {
+                write(buffer, offset + i, sample(data, i) * gain);
+            }
+        }
+    }
+
+    private static int sample(byte[] data, int index) {
+        return (short)(((data[index + 1] & 0xFF) << 8) | (data[index] & 0xFF));
+    }
+
+    private static void write(byte[] buffer, int index, float value) {
+        int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) value));
+        buffer[index    ] = (byte) sample;
+        buffer[index + 1] = (byte) (sample >> 8);
+    }
+}
@@ -0,0 +1,288 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * lock-free ring of decoded sound between one worker (writer) and mixer (reader).
+ * Worker decodes stream ahead, so mixer only copies from memory.
+ * Ring is grown by worker too, mixer just takes new array from volatile field
+ * @author vuvk
+ */
+final class PrefetchBuffer {
+    private final SoundBasis sound;
+    /** decoded sound, replaced by bigger array when buffer grows. Only worker changes it */
+    private volatile byte[] ring;
+    /** how many milliseconds are decoded ahead */
+    private volatile int millis;
+    /** how many milliseconds must be decoded ahead after growing */
+    private volatile int growMillis;
+    private final int frameSize;
+
+    /** only worker moves it */
+    private final AtomicLong writePos = new AtomicLong();
+    /** only mixer moves it */
+    private final AtomicLong readPos  = new AtomicLong();
+    /** stream is ended and isn't looped */
+    private volatile boolean ended = false;
+
+    /** number of last rewinding asked by mixer */
+    private volatile int rewindRequest = 0;
+    /** number of last rewinding done by worker */
+    private volatile int rewindDone = 0;
+    /** position of writing at last rewinding - older data is skipped */
+    private volatile long rewindWritePos = 0;
+    /** only for mixer */
+    private int rewindHandled = 0;
+    private long consumed = 0;
+
+    private volatile long underruns = 0;
+
+    /** one worker fills buffer at once */
+    private final AtomicBoolean filling = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    /**
+     * @param sound stream for decoding
+     * @param millis how many milliseconds are decoded ahead
+     */
+    PrefetchBuffer(SoundBasis sound, int millis) {
+        this.sound = sound;
+        this.millis = millis;
+        growMillis = millis;
+        frameSize = sound.getFormat().getFrameSize();
+        ring = new byte[getCapacity(millis)];
+    }
+
+    private int getCapacity(int millis) {
+        long bytes = (long) (sound.getFormat().getFrameRate() * millis / 1000) * frameSize;
+        return (int) Math.max(frameSize, bytes);
+    }
+
+    /**
+     * copy decoded sound. Only for mixer thread
+     * @return count of bytes, 0 if data isn't ready or -1 if sound is ended
+     */
+    int read(byte[] buffer, int offset, int length) {
+        final int done = rewindDone;
+        if (done != rewindRequest) {
+            // ждём перемотки, старые данные не нужны
+            readPos.lazySet(writePos.get());
+            return 0;
+        }
+        if (rewindHandled != done) {
+            rewindHandled = done;
+            if (readPos.get() < rewindWritePos) {
+                readPos.lazySet(rewindWritePos);
+            }
+        }
+
+        final boolean end = ended;
+        final long r = readPos.get();
+        final long w = writePos.get();
+        // массив читается после позиции записи - он содержит всё до неё
+        final byte[] data = ring;
+        final int capacity = data.length;
+        final int available = (int) (w - r);
+        if (available <= 0) {
+            if (end) {
+                return -1;
+            }
+            ++underruns;
+            SoundSystem.UNDERRUNS.incrementAndGet();
+            SoundWorkers.wake();
+            return 0;
+        }
+
+        if (length > available) {
+            length = available;
+        }
+        length -= length % frameSize;
+
+        int index = (int) (r % capacity);
+        int first = Math.min(length, capacity - index);
+        System.arraycopy(data, index, buffer, offset, first);
+        if (first < length) {
+            System.arraycopy(data, 0, buffer, offset + first, length - first);
+        }
+        readPos.lazySet(r + length);
+        consumed += length;
+
+        if (available - length < (capacity >> 1)) {
+            SoundWorkers.wake();
+        }
+        return length;
+    }
+
+    /**
+     * ask worker to rewind stream. Only for mixer thread
+     */
+    void rewind() {
+        rewindRequest = rewindRequest + 1;
+        consumed = 0;
+        SoundWorkers.wake();
+    }
+
+    /**
+     * @return count of bytes readed by mixer since last rewinding
+     */
+    long getConsumed() {
+        return consumed;
+    }
+
+    int getMillis() {
+        return millis;
+    }
+
+    /**
+     * ask worker to decode at least so far ahead. Doesn't block, any thread
+     */
+    void grow(int millis) {
+        if (millis > growMillis) {
+            growMillis = millis;
+            SoundWorkers.wake();
+        }
+    }
+
+    /**
+     * only for mixer thread
+     * @return count of bytes till end of stream or -1 if stream isn't decoded till end yet
+     */
+    int getRemaining() {
+        final int done = rewindDone;
+        if (done != rewindRequest || !ended) {
+            return -1;
+        }
+
+        long start = readPos.get();
+        if (rewindHandled != done && start < rewindWritePos) {
+            start = rewindWritePos;
+        }
+        return (int) (writePos.get() - start);
+    }
+
+    /**
+     * @return how many times mixer found buffer empty
+     */
+    long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * decode next part of stream if buffer has free space. Only for workers
+     * @return true if something was done
+     */
+    boolean fill() {
+        if (closed || !filling.compareAndSet(false, true)) {
+            return false;
+        }
+
+        try {
+            long start = System.nanoTime();
+            boolean worked = fillRing();
+            if (worked) {
+                SoundSystem.DECODE_TIME.record(System.nanoTime() - start);
+            }
+            return worked;
+        } finally {
+            filling.set(false);
+        }
+    }
+
+    private boolean fillRing() {
+        boolean worked = false;
+        if (growMillis > millis) {
+            resize(growMillis);
+            worked = true;
+        }
+
+        final int request = rewindRequest;
+        if (rewindDone != request) {
+            sound.rewindSource();
+            ended = false;
+            rewindWritePos = writePos.get();
+            rewindDone = request;
+            worked = true;
+        }
+
+        if (ended) {
+            return worked;
+        }
+
+        boolean rewinded = false;
+        final byte[] data = ring;
+        final int capacity = data.length;
+        long w = writePos.get();
+        int free = capacity - (int) (w - readPos.get());
+        while (free >= frameSize && !closed && rewindRequest == request) {
+            int index = (int) (w % capacity);
+            int length = Math.min(free, capacity - index);
+            int readed = sound.readSource(data, index, length);
+            if (readed > 0) {
+                w += readed;
+                writePos.set(w);
+                free -= readed;
+                rewinded = false;
+                worked = true;
+            } else if (readed == -1) {
+                // зацикленный звук перематывается сразу - без паузы
+                if (sound.isLooping() && !rewinded) {
+                    sound.rewindSource();
+                    rewinded = true;
+                } else {
+                    ended = !sound.isLooping();
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+
+        return worked;
+    }
+
+    /**
+     * move not readed sound to bigger array. Only for worker, which fills buffer
+     */
+    private void resize(int newMillis) {
+        final byte[] old = ring;
+        final byte[] grown = new byte[Math.max(old.length, getCapacity(newMillis))];
+        final long w = writePos.get();
+        // уже прочитанное тоже копируется, если микшер сдвинется во время копирования
+        long p = readPos.get();
+        while (p < w) {
+            int from = (int) (p % old.length);
+            int to   = (int) (p % grown.length);
+            int length = (int) Math.min(w - p, Math.min(old.length - from, grown.length - to));
+            System.arraycopy(old, from, grown, to, length);
+            p += length;
+        }
+        ring = grown;
+        millis = newMillis;
+    }
+
+    /**
+     * stop filling and wait for worker
+     */
+    void close() {
+        closed = true;
+        while (filling.get()) {
+            Thread.yield();
+        }
+    }
+}
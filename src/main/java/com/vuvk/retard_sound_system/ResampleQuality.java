@@ -0,0 +1,27 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * how sounds with other sample rate are converted to sample rate of system
+ * @author vuvk
+ */
+public enum ResampleQuality {
+    /** linear interpolation between two frames - cheap, but it dulls high tones and leaves aliasing */
+    LINEAR,
+    /** windowed sinc filter of 32 frames - clean sound for more CPU */
+    SINC
+}
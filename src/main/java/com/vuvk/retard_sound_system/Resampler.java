@@ -0,0 +1,304 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * streaming converter of sample rate for 16-bit signed little-endian PCM.
+ * Works by blocks and doesn't allocate memory after creation
+ * @author vuvk
+ */
+class Resampler extends InputStream {
+    /** half of length of sinc filter in frames */
+    static final int SINC_HALF_TAPS = 16;
+    /** count of precalculated offsets between two frames, coefficients between them are interpolated */
+    static final int SINC_PHASES = 256;
+    /** kaiser window, about -80 dB of aliasing */
+    private static final double KAISER_BETA = 8.0;
+    /** part of band kept below nyquist frequency */
+    private static final double ROLLOFF = 0.95;
+    private static final int BLOCK_FRAMES = 1024;
+
+    private final AudioInputStream source;
+    private final int channels;
+    private final int frameSize;
+    private final int inRate;
+    private final int outRate;
+    /** frames of source per output frame: whole part and remainder in 1/outRate */
+    private final int stepInt;
+    private final int stepFrac;
+    /** frames before and after position used by filter */
+    private final int halfTaps;
+    /** rows of coefficients for SINC_PHASES + 1 offsets or null for linear interpolation */
+    private final float[] coefficients;
+    private final float phaseScale;
+
+    private final byte[] bytes;
+    /** decoded frames of source (interleaved) */
+    private final float[] samples;
+    private final int capacity;
+
+    /** frame in samples under cursor */
+    private int pos;
+    /** offset of cursor after pos in 1/outRate */
+    private int frac;
+    /** count of frames in samples */
+    private int filled;
+    /** end of source in samples or -1 */
+    private int end;
+    private boolean eof;
+    private boolean marked = false;
+    private boolean started = false;
+
+    /**
+     * @param source PCM 16-bit signed little-endian stream with any sample rate
+     * @param outRate wanted sample rate
+     * @param quality filter
+     */
+    Resampler(AudioInputStream source, int outRate, ResampleQuality quality) {
+        AudioFormat format = source.getFormat();
+        this.source = source;
+        channels  = format.getChannels();
+        frameSize = format.getFrameSize();
+        inRate    = Math.round(format.getSampleRate());
+        this.outRate = outRate;
+        stepInt  = inRate / outRate;
+        stepFrac = inRate % outRate;
+
+        if (quality == ResampleQuality.SINC) {
+            halfTaps = SINC_HALF_TAPS;
+            coefficients = createCoefficients(ROLLOFF * Math.min(1.0, (double) outRate / inRate));
+        } else {
+            halfTaps = 1;
+            coefficients = null;
+        }
+        phaseScale = (float) SINC_PHASES / outRate;
+
+        bytes = new byte[BLOCK_FRAMES * frameSize];
+        capacity = BLOCK_FRAMES + (halfTaps << 2);
+        samples = new float[capacity * channels];
+        init();
+    }
+
+    /**
+     * @param source PCM 16-bit signed little-endian stream with any sample rate
+     * @param outRate wanted sample rate
+     * @param quality filter
+     * @return stream with sample rate outRate
+     */
+    static AudioInputStream resample(AudioInputStream source, int outRate, ResampleQuality quality) {
+        AudioFormat format = source.getFormat();
+        AudioFormat outFormat = new AudioFormat(outRate,
+                                                format.getSampleSizeInBits(),
+                                                format.getChannels(),
+                                                true,
+                                                false);
+        long frames = source.getFrameLength();
+        if (frames != AudioSystem.NOT_SPECIFIED) {
+            long inRate = Math.round(format.getSampleRate());
+            frames = (frames * outRate + inRate - 1) / inRate;
+        }
+        return new AudioInputStream(new Resampler(source, outRate, quality), outFormat, frames);
+    }
+
+    private void init() {
+        // тишина перед началом - история для фильтра
+        Arrays.fill(samples, 0.0f);
+        pos = halfTaps - 1;
+        filled = pos;
+        frac = 0;
+        end = -1;
+        eof = false;
+    }
+
+    /**
+     * rows of kaiser windowed sinc: row p is filter for cursor p / SINC_PHASES after frame
+     * @param cutoff frequency of filter relative to nyquist frequency of source
+     */
+    private static float[] createCoefficients(double cutoff) {
+        final int taps = SINC_HALF_TAPS << 1;
+        float[] result = new float[(SINC_PHASES + 1) * taps];
+        double[] row = new double[taps];
+        double i0Beta = besselI0(KAISER_BETA);
+        for (int p = 0; p <= SINC_PHASES; ++p) {
+            double offset = (double) p / SINC_PHASES;
+            double sum = 0.0;
+            for (int j = 0; j < taps; ++j) {
+                double t = j - SINC_HALF_TAPS + 1 - offset;
+                double u = t / SINC_HALF_TAPS;
+                double window = (Math.abs(u) < 1.0) ? besselI0(KAISER_BETA * Math.sqrt(1.0 - u * u)) / i0Beta : 0.0;
+                double x = Math.PI * cutoff * t;
+                double sinc = (x == 0.0) ? 1.0 : Math.sin(x) / x;
+                row[j] = cutoff * sinc * window;
+                sum += row[j];
+            }
+            // постоянная составляющая без изменений
+            for (int j = 0; j < taps; ++j) {
+                result[p * taps + j] = (float) (row[j] / sum);
+            }
+        }
+        return result;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double half = x * 0.5;
+        for (int k = 1; k < 50; ++k) {
+            term *= (half / k) * (half / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * read next block of source after history of filter
+     */
+    private void fill() throws IOException {
+        // при сильном понижении частоты курсор может уйти дальше прочитанного
+        int keep = Math.min(pos - halfTaps + 1, filled);
+        if (keep > 0) {
+            System.arraycopy(samples, keep * channels, samples, 0, (filled - keep) * channels);
+            pos    -= keep;
+            filled -= keep;
+        }
+
+        int length = Math.min(bytes.length, (capacity - filled - halfTaps) * frameSize);
+        length -= length % frameSize;
+        int cntReaded = source.read(bytes, 0, length);
+        if (cntReaded == -1) {
+            eof = true;
+            end = filled;
+            // тишина после конца - хвост фильтра
+            Arrays.fill(samples, filled * channels, (filled + halfTaps) * channels, 0.0f);
+            filled += halfTaps;
+            return;
+        }
+
+        int count = (cntReaded / frameSize) * channels;
+        for (int i = 0, n = filled * channels; i < count; ++i, ++n) {
+            samples[n] = (short) (((bytes[(i << 1) + 1] & 0xFF) << 8) | (bytes[i << 1] & 0xFF));
+        }
+        filled += cntReaded / frameSize;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        started = true;
+        int frames = length / frameSize;
+        int written = 0;
+        while (written < frames) {
+            while (!eof && filled <= pos + halfTaps) {
+                fill();
+            }
+            if (eof && pos >= end) {
+                break;
+            }
+
+            int n = offset + written * frameSize;
+            if (coefficients == null) {
+                float weight = (float) frac / outRate;
+                int base = pos * channels;
+                for (int c = 0; c < channels; ++c) {
+                    float value = samples[base + c];
+                    n = writeSample(buffer, n, value + (samples[base + channels + c] - value) * weight);
+                }
+            } else {
+                float phasePos = frac * phaseScale;
+                int phase = (int) phasePos;
+                float weight = phasePos - phase;
+                int row  = phase * (halfTaps << 1);
+                int next = row + (halfTaps << 1);
+                int base = (pos - halfTaps + 1) * channels;
+                for (int c = 0; c < channels; ++c) {
+                    float value = 0.0f;
+                    for (int j = 0, i = base + c; j < (halfTaps << 1); ++j, i += channels) {
+                        float coefficient = coefficients[row + j] + (coefficients[next + j] - coefficients[row + j]) * weight;
+                        value += samples[i] * coefficient;
+                    }
+                    n = writeSample(buffer, n, value);
+                }
+            }
+            ++written;
+
+            pos  += stepInt;
+            frac += stepFrac;
+            if (frac >= outRate) {
+                frac -= outRate;
+                ++pos;
+            }
+        }
+
+        if (written == 0 && frames > 0) {
+            return -1;
+        }
+        return written * frameSize;
+    }
+
+    private static int writeSample(byte[] buffer, int n, float value) {
+        int sample = Math.round(value);
+        if (sample > Short.MAX_VALUE) {
+            sample = Short.MAX_VALUE;
+        } else if (sample < Short.MIN_VALUE) {
+            sample = Short.MIN_VALUE;
+        }
+        buffer[n    ] = (byte) sample;
+        buffer[n + 1] = (byte) (sample >> 8);
+        return n + 2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("cannot read a single byte if frame size > 1");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return source.markSupported();
+    }
+
+    /**
+     * mark is kept only at begin of stream
+     */
+    @Override
+    public synchronized void mark(int readlimit) {
+        source.mark(readlimit);
+        marked = !started;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (!marked) {
+            throw new IOException("mark is supported only at begin of stream");
+        }
+        source.reset();
+        init();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -25,6 +25,13 @@ import java.util.logging.Logger;
 
 public final class Sound extends SoundBasis {  
     private static final Logger LOG = Logger.getLogger(Sound.class.getName());
+    
+    /** buffer, which gave this sound as voice for {@link SoundBuffer#play()} */
+    private SoundBuffer voiceOf = null;
+    private int voiceSlot = -1;
+    
+    static final double MIN_PITCH = 0.25;
+    static final double MAX_PITCH = 4.0;
         
     public Sound(SoundBuffer buffer) {
         prepareStream(buffer);
@@ -47,6 +54,7 @@ public final class Sound extends SoundBasis {
             prepareStream(new SoundBuffer(file));
         } else {
             prepareStream(file);
+            startPrefetch();
         }            
     }
     
@@ -59,16 +67,54 @@ public final class Sound extends SoundBasis {
             prepareStream(new SoundBuffer(url));
         } else {
             prepareStream(url);
+            startPrefetch();
         }  
     }
     
     private void prepareStream(SoundBuffer buffer) {
-        super.prepareStream(buffer.getAudioInputStream());
+        prepareBuffer(buffer);
     }    
+    
+    public double getPitch() {
+        return (double) getPitchStep() / PITCH_ONE;
+    }
+    
+    /**
+     * play sound faster and higher or slower and lower. 
+     * Works only for sounds from {@link SoundBuffer}, streamed sounds are played with normal speed
+     * @param value speed from 0.25 to 4.0, 1.0 - normal, 2.0 - octave up
+     */
+    public Sound setPitch(double value) {
+        if (value < MIN_PITCH) {
+            value = MIN_PITCH;
+        } else if (value > MAX_PITCH) {
+            value = MAX_PITCH;
+        }
+        setPitchStep((int) Math.round(value * PITCH_ONE));
+        return this;
+    }
+    
+    void setVoiceOf(SoundBuffer buffer, int slot) {
+        voiceOf = buffer;
+        voiceSlot = slot;
+    }
+    
+    /**
+     * sound was removed from mixer
+     */
+    @Override
+    void released() {
+        if (voiceOf != null) {
+            voiceOf.releaseVoice(voiceSlot);
+        }
+    }
 
     @Override
     public Sound play(boolean looping) {
-        super.play(looping);            
+        setLooping(looping);
+        setPlaying(true);
+        prepareRewind();
+        // перемотка выполняется потоком микшера
         SoundSystem.playSound(this);           
         return this;
     }
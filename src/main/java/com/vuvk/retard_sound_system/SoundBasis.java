@@ -15,6 +15,7 @@
 */
 package com.vuvk.retard_sound_system;
 
+import com.vuvk.utils.FastByteArrayOutputStream;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -22,10 +23,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
 /**
  *
@@ -34,19 +39,74 @@ import javax.sound.sampled.AudioInputStream;
 abstract class SoundBasis implements AutoCloseable {
     private static final Logger LOG = Logger.getLogger(SoundBasis.class.getName());   
     
+    /** step of cursor for normal speed, cursor of pitched sound moves by 1/PITCH_ONE of frame */
+    static final int PITCH_ONE = 1 << 16;
+    /** decoded file or URL not bigger than this is kept in memory after first playing */
+    static final int REWIND_CACHE_SIZE = 1 << 20;
+    
     protected URL  inputURL = null;
     protected File inputFile = null;
     protected AudioInputStream inputAudioStream;
+    /** shared decoded sound, it is readed by own cursor without stream */
+    protected SoundBuffer inputBuffer = null;
+    private byte[] inputBufferArray;
+    private ByteBuffer inputBufferView;
+    private int inputBufferLength;
     private int inputAudioStreamPosition = 0;
+    /** part of frame after cursor of shared buffer in 1/PITCH_ONE */
+    private int inputBufferFraction = 0;
+    private volatile int pitchStep = PITCH_ONE;
+    /** frame of mixer clock, when sound starts. Only for mixer thread */
+    long startFrame = SoundList.NOW;
+    /** frame of mixer clock, when sound stops. Only for mixer thread */
+    long stopFrame = Long.MAX_VALUE;
+    /** gains applied by mixer at end of last period. Only for mixer thread */
+    float gainLeft, gainRight;
+    /** volume and pan, which gains go to. Only for mixer thread */
+    double mixVolume, mixPan;
+    /** frames till gains reach volume and pan. Only for mixer thread */
+    int rampFrames = 0;
+    /** gains are set without ramp - sound is started. Only for mixer thread */
+    boolean gainReset = true;
+    /** length of change of volume in frames, 0 - one period of mixer */
+    private volatile int fadeFrames = 0;
+    /** decoded small file or URL, it becomes shared buffer after end of stream */
+    private FastByteArrayOutputStream rewindCache = null;
+    /** already opened stream from begin of file or URL for rewinding */
+    private final AtomicReference<AudioInputStream> spareStream = new AtomicReference<>();
+    /** stream after rewinding, it is closed by worker */
+    private final AtomicReference<AudioInputStream> retiredStream = new AtomicReference<>();
+    private final AtomicBoolean spareLoading = new AtomicBoolean(false);
+    private volatile boolean rewindPending = false;
+    private Runnable spareLoader = null;
+    /** decoded ahead stream, mixer reads only from it */
+    private volatile PrefetchBuffer prefetch = null;
     private AudioFormat audioFormat;
     private int channels = 0;
-    private boolean playing = false;
-    private boolean looping = false;
-    private double volume = 1.0;
+    private volatile boolean playing = false;
+    private volatile boolean looping = false;
+    private volatile double volume = 1.0;
+    private volatile double pan = 0.0;
+    private volatile int priority = 0;
+    private volatile Bus bus = Bus.SFX;
         
     public double getVolume() {
         return volume;
     }
+    
+    /**
+     * @return balance from -1.0 (left) to 1.0 (right)
+     */
+    public double getPan() {
+        return pan;
+    }
+	
+    /**
+     * @return importance of sound for voice stealing
+     */
+    public int getPriority() {
+        return priority;
+    }
 	
     public boolean isPlaying() {
         return playing;
@@ -64,16 +124,72 @@ abstract class SoundBasis implements AutoCloseable {
         return channels;
     }
     
+    /**
+     * set volume. It is changed smoothly during one period of mixer, so there are no clicks
+     * @param value from 0.0 to 1.0
+     */
     public SoundBasis setVolume(double value) {
+        return fadeTo(value, 0);
+    }
+    
+    /**
+     * change volume smoothly. {@link #getVolume()} returns new volume at once
+     * @param value from 0.0 to 1.0
+     * @param millis time of change in milliseconds
+     */
+    public SoundBasis fadeTo(double value, int millis) {
         if (value < 0.0) {
             value = 0.0;
         } else if (value > 1.0) {
             value = 1.0;
         }
+        // длина до громкости - микшер читает их в обратном порядке
+        fadeFrames = (millis > 0) ? (int) SoundSystem.toFrames(millis * 1000000L) : 0;
         volume = value;
         
         return this;
     }
+    
+    int getFadeFrames() {
+        return fadeFrames;
+    }
+
+    /**
+     * set balance between channels. Works only for one line output ({@link Config#setSingleLine(boolean)})
+     * @param value from -1.0 (left) to 1.0 (right), 0.0 - center
+     */
+    public SoundBasis setPan(double value) {
+        if (value < -1.0) {
+            value = -1.0;
+        } else if (value > 1.0) {
+            value = 1.0;
+        }
+        pan = value;
+        
+        return this;
+    }
+
+    /**
+     * set importance of sound. When all voices are busy the sound can replace
+     * only sounds with the same or lower priority
+     * @param priority bigger is more important, default 0
+     */
+    public SoundBasis setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+    
+    public Bus getBus() {
+        return bus;
+    }
+    
+    /**
+     * @param bus group of sounds, which this sound is mixed to (null - {@link Bus#MASTER})
+     */
+    public SoundBasis setBus(Bus bus) {
+        this.bus = (bus != null) ? bus : Bus.MASTER;
+        return this;
+    }
 
     public SoundBasis setLooping(boolean looping) {
         this.looping = looping;
@@ -85,12 +201,126 @@ abstract class SoundBasis implements AutoCloseable {
         return this;
     }
     
+    /**
+     * @return count of bytes readed from begin of stream
+     */
+    long getStreamPosition() {
+        final PrefetchBuffer prefetched = prefetch;
+        return (prefetched != null) ? prefetched.getConsumed() : inputAudioStreamPosition;
+    }
+    
+    /**
+     * @return how many times stream wasn't decoded in time and silence was played instead
+     */
+    public long getUnderruns() {
+        final PrefetchBuffer prefetched = prefetch;
+        return (prefetched != null) ? prefetched.getUnderruns() : 0;
+    }
+    
+    /**
+     * sound was removed from mixer. Only for mixer thread
+     */
+    void released() {
+    }
+    
+    /**
+     * decode stream in worker threads ahead of playing ({@link SoundSystem#setPrefetchMillis(int)})
+     */
+    protected void startPrefetch() {
+        if (prefetch == null && inputBuffer == null && inputAudioStream != null) {
+            prefetch = new PrefetchBuffer(this, SoundSystem.getPrefetchMillis());
+            SoundWorkers.register(prefetch);
+        }
+    }
+    
+    /**
+     * @return true if sound can be played again from begin
+     */
+    boolean isRewindable() {
+        return inputBuffer != null || inputFile != null || inputURL != null;
+    }
+    
+    /**
+     * decode stream at least so far ahead. Buffer is grown by worker, so it doesn't block
+     */
+    void growPrefetch(int millis) {
+        final PrefetchBuffer prefetched = prefetch;
+        if (prefetched != null) {
+            prefetched.grow(millis);
+        }
+    }
+    
+    /**
+     * only for mixer thread
+     * @return count of bytes till end of sound or -1 if it isn't known yet
+     */
+    int getRemaining() {
+        final PrefetchBuffer prefetched = prefetch;
+        return (prefetched != null) ? prefetched.getRemaining() : -1;
+    }
+    
+    private void stopPrefetch() {
+        final PrefetchBuffer prefetched = prefetch;
+        if (prefetched != null) {
+            prefetch = null;
+            SoundWorkers.unregister(prefetched);
+        }
+    }
+    
     int read(byte[] buffer) {
+        return read(buffer, 0, buffer.length);
+    }
+    
+    int read(byte[] buffer, int offset, int length) {
+        final PrefetchBuffer prefetched = prefetch;
+        if (prefetched != null) {
+            return prefetched.read(buffer, offset, length);
+        }
+        if (inputBuffer != null) {
+            final int step = pitchStep;
+            if (step != PITCH_ONE || inputBufferFraction != 0) {
+                return readBufferPitched(buffer, offset, length, step);
+            }
+        }
+        return readSource(buffer, offset, length);
+    }
+    
+    int getPitchStep() {
+        return pitchStep;
+    }
+    
+    /**
+     * @param step step of cursor per frame in 1/{@link #PITCH_ONE}, works only for shared sound buffer
+     */
+    void setPitchStep(int step) {
+        pitchStep = step;
+    }
+    
+    /**
+     * read from source. Only for thread, which owns the source - mixer or decoder
+     */
+    int readSource(byte[] buffer, int offset, int length) {
+        if (inputBuffer != null) {
+            return readBuffer(buffer, offset, length);
+        }
+        
+        if (rewindPending) {
+            // новый поток ещё открывается - пока тишина
+            AudioInputStream spare = spareStream.getAndSet(null);
+            if (spare == null) {
+                return 0;
+            }
+            swapStream(spare);
+        }
+        
         if (inputAudioStream != null) {            
             try {                
-                int readed = inputAudioStream.read(buffer);
+                int readed = inputAudioStream.read(buffer, offset, length);
                 if (readed > 0) {
                     inputAudioStreamPosition += readed;
+                    cacheForRewind(buffer, offset, readed);
+                } else if (readed == -1 && rewindCache != null) {
+                    switchToRewindCache();
                 }
                 return readed;            
             } catch (IOException ex) {
@@ -101,7 +331,190 @@ abstract class SoundBasis implements AutoCloseable {
         return -1;
     }
     
+    private void cacheForRewind(byte[] buffer, int offset, int length) {
+        if (rewindCache != null) {
+            if (rewindCache.size() + length <= rewindCache.getBuffer().length) {
+                rewindCache.write(buffer, offset, length);
+            } else {
+                // звук длиннее, чем обещал - перематываем через файл
+                rewindCache = null;
+                prepareRewind();
+            }
+        }
+    }
+    
+    /**
+     * whole file is decoded - play it from memory from now
+     */
+    private void switchToRewindCache() {
+        SoundBuffer decoded = new SoundBuffer(audioFormat, rewindCache.getBuffer(), rewindCache.size());
+        rewindCache = null;
+        
+        // файл закрывается не в потоке микшера
+        final AudioInputStream stream = inputAudioStream;
+        inputAudioStream = null;
+        SoundWorkers.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly(stream);
+            }
+        });
+        
+        useBuffer(decoded);
+        inputAudioStreamPosition = decoded.getLength();
+    }
+    
+    /**
+     * open stream for next rewinding in worker thread
+     */
+    void prepareRewind() {
+        if (inputBuffer != null || (rewindCache != null && !rewindPending) || (inputFile == null && inputURL == null)) {
+            return;
+        }
+        if (spareStream.get() != null || !spareLoading.compareAndSet(false, true)) {
+            return;
+        }
+        
+        if (spareLoader == null) {
+            spareLoader = new Runnable() {
+                @Override
+                public void run() {
+                    closeQuietly(retiredStream.getAndSet(null));
+                    
+                    AudioInputStream spare = null;
+                    try {
+                        File file = inputFile;
+                        URL  url  = inputURL;
+                        if (file != null) {
+                            spare = SoundSystem.getEncodedAudioInputStream(new BufferedInputStream(new FileInputStream(file)));
+                        } else if (url != null) {
+                            spare = SoundSystem.getEncodedAudioInputStream(new BufferedInputStream(url.openStream()));
+                        }
+                    } catch (IOException ex) {
+                        LOG.log(Level.SEVERE, null, ex);
+                    }
+                    
+                    closeQuietly(spareStream.getAndSet(spare));
+                    spareLoading.set(false);
+                }
+            };
+        }
+        SoundWorkers.execute(spareLoader);
+    }
+    
+    private void swapStream(AudioInputStream spare) {
+        retireStream(inputAudioStream);
+        inputAudioStream = spare;
+        inputAudioStreamPosition = 0;
+        rewindPending = false;
+        prepareRewind();
+    }
+    
+    private void retireStream(AudioInputStream stream) {
+        closeQuietly(retiredStream.getAndSet(stream));
+    }
+    
+    private static void closeQuietly(AudioInputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+    
+    /**
+     * copy from shared sound buffer by cursor
+     */
+    private int readBuffer(byte[] buffer, int offset, int length) {
+        int available = inputBufferLength - inputAudioStreamPosition;
+        if (available <= 0) {
+            return -1;
+        }
+        
+        if (length > available) {
+            length = available;
+        }
+        if (inputBufferArray != null) {
+            System.arraycopy(inputBufferArray, inputAudioStreamPosition, buffer, offset, length);
+        } else {
+            inputBufferView.position(inputAudioStreamPosition);
+            inputBufferView.get(buffer, offset, length);
+        }
+        inputAudioStreamPosition += length;
+        return length;
+    }
+    
+    /**
+     * read from shared sound buffer by fractional cursor with linear interpolation between frames.
+     * Looped sound is interpolated through its end to begin without rewinding
+     * @param step step of cursor per frame in 1/{@link #PITCH_ONE}
+     */
+    private int readBufferPitched(byte[] buffer, int offset, int length, int step) {
+        final int frameSize = channels << 1;
+        final int frames = inputBufferLength / frameSize;
+        int frame = inputAudioStreamPosition / frameSize;
+        if (frame >= frames) {
+            return -1;
+        }
+        
+        final boolean loop = looping;
+        final float fractionScale = 1.0f / PITCH_ONE;
+        int fraction = inputBufferFraction;
+        int n = offset;
+        final int end = offset + length - length % frameSize;
+        while (n < end) {
+            int next = frame + 1;
+            if (next >= frames) {
+                next = loop ? 0 : frame;
+            }
+            
+            final float weight = fraction * fractionScale;
+            for (int c = 0, i = frame * frameSize, j = next * frameSize; c < channels; ++c, i += 2, j += 2) {
+                final int current = getBufferSample(i);
+                final int sample = current + (int) ((getBufferSample(j) - current) * weight);
+                buffer[n    ] = (byte) sample;
+                buffer[n + 1] = (byte) (sample >> 8);
+                n += 2;
+            }
+            
+            fraction += step;
+            frame += fraction >>> 16;
+            fraction &= PITCH_ONE - 1;
+            if (frame >= frames) {
+                if (!loop) {
+                    fraction = 0;
+                    frame = frames;
+                    break;
+                }
+                frame %= frames;
+            }
+        }
+        
+        inputBufferFraction = fraction;
+        inputAudioStreamPosition = frame * frameSize;
+        return n - offset;
+    }
+    
+    private int getBufferSample(int index) {
+        if (inputBufferArray != null) {
+            return (short) (((inputBufferArray[index + 1] & 0xFF) << 8) | (inputBufferArray[index] & 0xFF));
+        }
+        return (short) (((inputBufferView.get(index + 1) & 0xFF) << 8) | (inputBufferView.get(index) & 0xFF));
+    }
+    
     long skip(long bytes) {
+        if (prefetch != null) {
+            return 0;
+        }
+        
+        if (inputBuffer != null) {
+            long skipped = Math.max(0, Math.min(bytes, inputBufferLength - inputAudioStreamPosition));
+            inputAudioStreamPosition += skipped;
+            return skipped;
+        }
+        
         if (inputAudioStream != null) {
             try {
                 long skipped = inputAudioStream.skip(bytes);
@@ -122,12 +535,13 @@ abstract class SoundBasis implements AutoCloseable {
     }
     
     public SoundBasis play(final boolean looping) {
-        if (inputAudioStreamPosition > 0) {
+        if (getStreamPosition() > 0) {
             stop();
             rewind();
         }
         setLooping(looping);
         setPlaying(true);
+        prepareRewind();
         
         return this;        
     }    
@@ -136,11 +550,74 @@ abstract class SoundBasis implements AutoCloseable {
         return play(true);
     }    
     
-    public SoundBasis rewind() {        
-        if (inputFile != null) {
-            prepareStream(inputFile);
-        } else if (inputURL != null) {
-            prepareStream(inputURL);
+    /**
+     * play sound from begin exactly at frame of output, see {@link SoundSystem#getOutputFrame()}.
+     * Sound with frame in past starts at once
+     * @param frame frame of clock of sound system
+     */
+    public SoundBasis playAt(long frame) {
+        setPlaying(true);
+        prepareRewind();
+        SoundSystem.playSound(this, frame);
+        return this;
+    }
+    
+    /**
+     * play sound from begin after time from now
+     * @param nanos delay of start in nanoseconds
+     */
+    public SoundBasis playAfter(long nanos) {
+        return playAt(SoundSystem.getOutputFrame(this) + SoundSystem.toFrames(nanos));
+    }
+    
+    /**
+     * stop playing sound exactly at frame of output, see {@link SoundSystem#getOutputFrame()}
+     * @param frame frame of clock of sound system
+     */
+    public SoundBasis stopAt(long frame) {
+        SoundSystem.stopSound(this, frame);
+        return this;
+    }
+    
+    /**
+     * stop playing sound after time from now
+     * @param nanos delay of stop in nanoseconds
+     */
+    public SoundBasis stopAfter(long nanos) {
+        return stopAt(SoundSystem.getOutputFrame(this) + SoundSystem.toFrames(nanos));
+    }
+    
+    public SoundBasis rewind() {
+        final PrefetchBuffer prefetched = prefetch;
+        if (prefetched != null) {
+            prefetched.rewind();
+        } else {
+            rewindSource();
+        }
+        
+        return this;
+    }
+    
+    /**
+     * rewind source. Only for thread, which owns the source - mixer or decoder
+     */
+    void rewindSource() {        
+        if (inputBuffer != null) {
+            inputAudioStreamPosition = 0;
+            inputBufferFraction = 0;
+        } else if (inputFile != null || inputURL != null) {
+            // недочитанный звук кэшируется заново с начала
+            if (rewindCache != null) {
+                rewindCache.reset();
+            }
+            // без открытия файла - берём заранее открытый поток
+            AudioInputStream spare = spareStream.getAndSet(null);
+            if (spare != null) {
+                swapStream(spare);
+            } else {
+                rewindPending = true;
+                prepareRewind();
+            }
         } else if (inputAudioStream != null/* && inputAudioStream.markSupported()*/) {
             try {
                 inputAudioStream.reset();
@@ -149,8 +626,6 @@ abstract class SoundBasis implements AutoCloseable {
                 LOG.log(Level.SEVERE, null, ex);
             }
         }
-        
-        return this;
     }
     
     public SoundBasis stop() {
@@ -159,6 +634,14 @@ abstract class SoundBasis implements AutoCloseable {
         return this;
     }
     
+    /**
+     * sound without own stream, it makes samples in {@link #read(byte[], int, int)} itself
+     */
+    protected void prepareFormat(AudioFormat format) {
+        audioFormat = format;
+        channels = format.getChannels();
+    }
+    
     protected void markStream() {    
         if (inputAudioStream != null) {
             inputAudioStream.mark(0);
@@ -166,6 +649,9 @@ abstract class SoundBasis implements AutoCloseable {
     }
     
     protected void prepareStream(AudioInputStream stream) {        
+        inputBuffer = null;
+        inputBufferArray = null;
+        inputBufferView = null;
         inputAudioStream = stream;
         markStream();
         audioFormat = inputAudioStream.getFormat();
@@ -173,34 +659,74 @@ abstract class SoundBasis implements AutoCloseable {
         inputAudioStreamPosition = 0;
     }
     
+    /**
+     * play shared decoded sound without own stream
+     */
+    protected void prepareBuffer(SoundBuffer buffer) {
+        closeStream();
+        inputFile = null;
+        inputURL  = null;
+        useBuffer(buffer);
+    }
+    
+    private void useBuffer(SoundBuffer buffer) {
+        inputBuffer = buffer;
+        inputBufferArray = buffer.getArray();
+        inputBufferView  = (inputBufferArray == null) ? buffer.getData() : null;
+        inputBufferLength = buffer.getLength();
+        audioFormat = buffer.getFormat();
+        channels = audioFormat.getChannels();
+        inputAudioStreamPosition = 0;
+        inputBufferFraction = 0;
+    }
+    
     protected void prepareStream(InputStream stream) {
         prepareStream(SoundSystem.getEncodedAudioInputStream(stream));
     }
     
     protected void prepareStream(File file) {
-        inputFile = file;
-        inputURL = null;
         closeStream();
         try {
             prepareStream(new BufferedInputStream(new FileInputStream(file)));
         } catch (FileNotFoundException ex) {
             LOG.log(Level.SEVERE, null, ex);
         }
+        inputFile = file;
+        inputURL = null;
+        prepareRewindCache();
     }
     
     protected void prepareStream(URL url) {
-        inputFile = null;
-        inputURL = url;
         closeStream();
         try {
             prepareStream(new BufferedInputStream(url.openStream()));
         } catch (IOException ex) {
             LOG.log(Level.SEVERE, null, ex);
         }        
+        inputFile = null;
+        inputURL = url;
+        prepareRewindCache();
+    }
+    
+    /**
+     * small sound is decoded to memory while playing first time
+     */
+    private void prepareRewindCache() {
+        rewindCache = null;
+        if (inputAudioStream != null) {
+            long size = inputAudioStream.getFrameLength() * audioFormat.getFrameSize();
+            if (inputAudioStream.getFrameLength() != AudioSystem.NOT_SPECIFIED && size > 0 && size <= REWIND_CACHE_SIZE) {
+                rewindCache = new FastByteArrayOutputStream((int) size);
+            }
+        }
     }
     
     protected void closeStream() {
         inputAudioStreamPosition = 0;
+        rewindCache = null;
+        rewindPending = false;
+        closeQuietly(spareStream.getAndSet(null));
+        closeQuietly(retiredStream.getAndSet(null));
         if (inputAudioStream != null) {
             try {
                 inputAudioStream.close();
@@ -214,10 +740,15 @@ abstract class SoundBasis implements AutoCloseable {
     @Override
     public void close() {
         stop();
+        stopPrefetch();
         closeStream();
         
         inputFile = null;
         inputURL  = null;
+        inputBuffer = null;
+        inputBufferArray = null;
+        inputBufferView = null;
+        inputBufferLength = 0;
         channels = 0;
         audioFormat = null;        
     }
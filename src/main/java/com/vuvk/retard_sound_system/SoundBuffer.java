@@ -15,20 +15,27 @@
 */
 package com.vuvk.retard_sound_system;
 
+import com.vuvk.utils.ByteBufferInputStream;
 import com.vuvk.utils.FastByteArrayInputStream;
+import com.vuvk.utils.FastByteArrayOutputStream;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
 /**
  * load sound to memory buffer
@@ -37,70 +44,370 @@ import javax.sound.sampled.AudioInputStream;
 public final class SoundBuffer {
     private static final Logger LOG = Logger.getLogger(SoundBuffer.class.getName());    
     
+    private static final int MIN_BUFFER_SIZE = 65536;
+    private static final int CHUNK_SIZE = 65536;
+    /** count of sounds played by {@link #play()} at once */
+    static final int MAX_VOICES = 16;
+    
+    /**
+     * where decoded sound is stored
+     */
+    public enum Storage {
+        /** byte array in java heap */
+        HEAP,
+        /** direct buffer out of java heap */
+        DIRECT,
+        /** temporary file mapped to memory, OS loads and unloads it itself */
+        MAPPED
+    }
+    
     private AudioFormat format;
+    private Storage storage;
+    /** decoded sound for HEAP storage, only first length bytes are valid */
     private byte[] buffer;
+    /** decoded sound for DIRECT and MAPPED storage */
+    private ByteBuffer data;
+    private int length;
+    
+    /** voices for fire-and-forget playing, created when needed */
+    private final AtomicReferenceArray<Sound> voices = new AtomicReferenceArray<>(MAX_VOICES);
+    private final AtomicIntegerArray busyVoices = new AtomicIntegerArray(MAX_VOICES);
+    private final AtomicInteger nextVoice = new AtomicInteger();
     
     public SoundBuffer(String path) {
-        try {
-            load(new BufferedInputStream(new FileInputStream(new File(path))));
-        } catch (FileNotFoundException ex) {
-            LOG.log(Level.SEVERE, null, ex);
-        }
+        this(path, Storage.HEAP);
     }
     
     public SoundBuffer(URL url) {
+        this(url, Storage.HEAP);
+    }
+    
+    public SoundBuffer(File file) {
+        this(file, Storage.HEAP);
+    }
+    
+    public SoundBuffer(InputStream inputStream) {   
+        this(inputStream, Storage.HEAP);
+    }
+    
+    public SoundBuffer(String path, Storage storage) {
+        this(new File(path), storage);
+    }
+    
+    public SoundBuffer(URL url, Storage storage) {
         try {
-            load(new BufferedInputStream(url.openStream()));
+            load(new BufferedInputStream(url.openStream()), storage);
         } catch (IOException ex) {
             LOG.log(Level.SEVERE, null, ex);
         }
     }
     
-    public SoundBuffer(File file) {
-        try {
-            load(new BufferedInputStream(new FileInputStream(file)));
-        } catch (FileNotFoundException ex) {
+    public SoundBuffer(File file, Storage storage) {
+        // сначала ищем уже декодированный звук на диске
+        PcmDiskCache cache = SoundSystem.getPcmCache();
+        String key = (cache != null) ? cache.getKey(file) : null;
+        if (key != null && loadFromCache(cache, key, storage)) {
+            return;
+        }
+        
+        boolean loaded = false;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            loaded = load(in, storage);
+        } catch (IOException ex) {
             LOG.log(Level.SEVERE, null, ex);
         }
+        
+        // в кэш попадает только полностью декодированный звук
+        if (key != null && loaded) {
+            cache.store(key, format, getData());
+        }
     }
     
-    public SoundBuffer(InputStream inputStream) {   
-        load(inputStream);
+    public SoundBuffer(InputStream inputStream, Storage storage) {   
+        load(inputStream, storage);
+    }
+    
+    /**
+     * buffer for already decoded sound
+     */
+    SoundBuffer(AudioFormat format, byte[] buffer, int length) {
+        this.format = format;
+        this.buffer = buffer;
+        this.length = length;
+        this.storage = Storage.HEAP;
+    }
+    
+    public Storage getStorage() {
+        return storage;
+    }
+    
+    public AudioFormat getFormat() {
+        return format;
+    }
+    
+    /**
+     * @return size of decoded sound in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * play sound from this buffer without creating of Sound.
+     * Many copies can be played at once, they share the same decoded data
+     * @return voice of sound - it is returned to buffer after stop, so don't keep it.
+     * Null if all 16 voices of buffer are busy
+     */
+    public Sound play() {
+        return play(1.0);
+    }
+    
+    /**
+     * play sound from this buffer without creating of Sound.
+     * Many copies can be played at once, they share the same decoded data
+     * @param volume volume of this copy
+     * @return voice of sound - it is returned to buffer after stop, so don't keep it.
+     * Null if all 16 voices of buffer are busy
+     */
+    public Sound play(double volume) {
+        return play(volume, 1.0);
+    }
+    
+    /**
+     * play sound from this buffer with other speed and tone without creating of Sound.
+     * Many copies can be played at once, they share the same decoded data
+     * @param volume volume of this copy
+     * @param pitch speed of this copy, see {@link Sound#setPitch(double)}
+     * @return voice of sound - it is returned to buffer after stop, so don't keep it.
+     * Null if all 16 voices of buffer are busy
+     */
+    public Sound play(double volume, double pitch) {
+        if (format == null) {
+            return null;
+        }
+        
+        final int start = nextVoice.getAndIncrement() & Integer.MAX_VALUE;
+        int slot = -1;
+        for (int i = 0; i < MAX_VOICES; ++i) {
+            int index = (start + i) % MAX_VOICES;
+            if (busyVoices.compareAndSet(index, 0, 1)) {
+                slot = index;
+                break;
+            }
+        }
+        
+        if (slot == -1) {
+            // все голоса заняты и принадлежат другим - звук не играется
+            SoundSystem.DROPS.incrementAndGet();
+            return null;
+        }
+        
+        Sound voice = voices.get(slot);
+        if (voice == null) {
+            voice = new Sound(this);
+            voice.setVoiceOf(this, slot);
+            voices.set(slot, voice);
+        }
+        
+        // голос мог быть изменён прошлым владельцем
+        voice.setVolume(volume);
+        voice.setPan(0.0);
+        voice.setPitch(pitch);
+        voice.setPriority(0);
+        voice.setBus(Bus.SFX);
+        voice.play();
+        return voice;
+    }
+    
+    /**
+     * voice was removed from mixer
+     */
+    void releaseVoice(int slot) {
+        busyVoices.set(slot, 0);
+    }
+    
+    /**
+     * @return decoded sound in heap or null if it stored out of heap
+     */
+    byte[] getArray() {
+        return buffer;
     }
     
-    private void load(InputStream inputStream) {
+    /**
+     * @return false if sound can't be decoded, format is null then
+     */
+    private boolean load(InputStream inputStream, Storage storage) {
         AudioInputStream stream = SoundSystem.getEncodedAudioInputStream(inputStream);
         if (stream != null) {
             try {
                 format = stream.getFormat();
                 
-                List<Byte> buf = new ArrayList<>(inputStream.available());
-                int n;
-                int bufferSize = 0;
-                byte[] readed = new byte[65535];
-                while ((n = stream.read(readed)) != -1) {
-                    bufferSize += n;
-                    for (int i = 0; i < n; ++i) {
-                        buf.add(readed[i]);
-                    }
+                // если длина известна - выделяем память ровно один раз
+                long frames = stream.getFrameLength();
+                int expected = -1;
+                if (frames != AudioSystem.NOT_SPECIFIED && frames > 0 && frames * format.getFrameSize() <= Integer.MAX_VALUE) {
+                    expected = (int) (frames * format.getFrameSize());
                 }
                 
-                buffer = new byte[bufferSize];
-                for (n = 0; n < bufferSize; ++n) {
-                    buffer[n] = buf.get(n);
+                switch (storage) {
+                    case DIRECT :
+                        loadToDirect(stream, expected);
+                        break;
+                    case MAPPED :
+                        loadToMapped(stream);
+                        break;
+                    default :
+                        loadToHeap(stream, expected, inputStream.available());
+                        break;
                 }
-                buf.clear();
+                this.storage = storage;
+                return true;
             } catch (IOException ex) {
                 LOG.log(Level.SEVERE, null, ex);
             }
         } 
+        
+        // недекодированный звук не играется
+        format = null;
+        buffer = null;
+        data = null;
+        length = 0;
+        return false;
+    }
+    
+    /**
+     * load decoded sound from disk cache with one read (or mapping)
+     * @return false if there is no cached sound
+     */
+    private boolean loadFromCache(PcmDiskCache cache, String key, Storage storage) {
+        AudioFormat cachedFormat = cache.readFormat(key);
+        if (cachedFormat == null) {
+            return false;
+        }
+        
+        try (FileChannel channel = cache.open(key)) {
+            int size = (int) (channel.size() - PcmDiskCache.HEADER_SIZE);
+            switch (storage) {
+                case MAPPED :
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, PcmDiskCache.HEADER_SIZE, size);
+                    break;
+                case DIRECT :
+                    ByteBuffer direct = ByteBuffer.allocateDirect(size);
+                    readFully(channel, direct);
+                    direct.flip();
+                    data = direct.asReadOnlyBuffer();
+                    break;
+                default :
+                    buffer = new byte[size];
+                    readFully(channel, ByteBuffer.wrap(buffer));
+                    break;
+            }
+            
+            length = size;
+            format = cachedFormat;
+            this.storage = storage;
+            return true;
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+            buffer = null;
+            data = null;
+        }
+        
+        return false;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target) == -1) {
+                throw new IOException("Unexpected end of cached sound");
+            }
+        }
+    }
+    
+    private void loadToHeap(AudioInputStream stream, int expected, int available) throws IOException {
+        final int frameSize = format.getFrameSize();
+        
+        FastByteArrayOutputStream out = new FastByteArrayOutputStream(
+            (expected > 0) ? expected : Math.max(available, MIN_BUFFER_SIZE)
+        );
+        while (expected < 0 || out.size() < expected) {
+            if (out.getBuffer().length - out.size() < frameSize) {
+                out.ensureCapacity(out.size() + frameSize);
+            }
+            if (out.readFrom(stream) == -1) {
+                break;
+            }
+        }
+
+        length = out.size();
+        // без известной длины в массиве остаётся запас роста - храним только звук
+        buffer = (out.getBuffer().length != length) ? Arrays.copyOf(out.getBuffer(), length) : out.getBuffer();
+    }
+    
+    private void loadToDirect(AudioInputStream stream, int expected) throws IOException {
+        ByteBuffer direct = ByteBuffer.allocateDirect((expected > 0) ? expected : MIN_BUFFER_SIZE);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int n;
+        while ((n = stream.read(chunk)) != -1) {
+            if (direct.remaining() < n) {
+                // растём в полтора раза вне кучи
+                int capacity = Math.max(direct.capacity() + (direct.capacity() >> 1), direct.position() + n);
+                ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+                direct.flip();
+                grown.put(direct);
+                direct = grown;
+            }
+            direct.put(chunk, 0, n);
+        }
+        
+        length = direct.position();
+        direct.flip();
+        data = direct.asReadOnlyBuffer();
+    }
+    
+    private void loadToMapped(AudioInputStream stream) throws IOException {
+        File file = File.createTempFile("rss", ".pcm");
+        file.deleteOnExit();
+        
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            ByteBuffer wrapped = ByteBuffer.wrap(chunk);
+            int n;
+            while ((n = stream.read(chunk)) != -1) {
+                wrapped.clear();
+                wrapped.limit(n);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+            }
+            
+            length = (int) channel.size();
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        
+        // отображение живёт и без файла (если ОС позволяет удалить)
+        file.delete();
+    }
+    
+    /**
+     * @return own view of decoded sound
+     */
+    ByteBuffer getData() {
+        return (buffer != null) ? 
+                ByteBuffer.wrap(buffer, 0, length) : 
+                data.duplicate();
     }
     
     public AudioInputStream getAudioInputStream() {
-        if (buffer == null || format == null) {
+        if (format == null || (buffer == null && data == null)) {
             return null;
         }
         
-        return new AudioInputStream(new FastByteArrayInputStream(buffer), format, buffer.length);
+        InputStream in = (buffer != null) ? 
+                          new FastByteArrayInputStream(buffer, 0, length) : 
+                          new ByteBufferInputStream(data.duplicate());
+        
+        return new AudioInputStream(in, format, length / format.getFrameSize());
     }
 }
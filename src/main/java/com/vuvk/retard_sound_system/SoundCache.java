@@ -15,47 +15,23 @@
 */
 package com.vuvk.retard_sound_system;
 
-import javax.sound.sampled.SourceDataLine;
-
 /**
  * class for caching sound data
  * @author vuvk
  */
 class SoundCache {
-    private SourceDataLine line;
+    private AudioOutput line;
     private final byte[] buffer;
     private int bufferSize = -1;
 
-    SoundCache(int cacheSize, SourceDataLine line) {
+    SoundCache(int cacheSize, AudioOutput line) {
         this.buffer = new byte[cacheSize];
         this.line = line;
     }
 
     void writeToLine() {
-        int offset = 0;
         int length = (bufferSize % 2 == 0) ? bufferSize : bufferSize + 1;
-
-        if (SoundSystem.FAST_MODE) {
-            int cnt;
-
-            // пытаемся записать
-            int maxSizeForWrite = line.getFormat().getChannels() * (SoundSystem.SAMPLE_SIZE_IN_BITS >> 3);
-            int skips = 0;
-            int maxSkips = SoundSystem.MAX_WRITE_LINE_TRIES * (length / maxSizeForWrite);
-            while (offset < length && skips < maxSkips) {
-                cnt = line.available();
-                if (cnt > 0) {
-                    int sizeForWrite = Math.min(cnt, maxSizeForWrite);
-                    line.write(buffer, offset, sizeForWrite);
-                    //offset += sizeForWrite;
-                    offset += maxSizeForWrite;
-                } else {
-                    ++skips;
-                }
-            }
-        } else {
-            line.write(buffer, 0, length);                
-        }        
+        line.write(buffer, 0, length);
     }
 
     void write(byte value) {
@@ -66,6 +42,21 @@ class SoundCache {
         buffer[++bufferSize] = value;
     }
 
+    void write(byte[] data, int offset, int length) {
+        while (length > 0) {
+            if (isFull()) {
+                writeToLine();
+                reset();
+            }
+
+            int cnt = Math.min(length, buffer.length - 1 - bufferSize);
+            System.arraycopy(data, offset, buffer, bufferSize + 1, cnt);
+            bufferSize += cnt;
+            offset += cnt;
+            length -= cnt;
+        }
+    }
+
     void reset() {
         bufferSize = -1;
     }
@@ -81,6 +72,13 @@ class SoundCache {
         return (bufferSize == buffer.length - 1);
     }
 
+    /**
+     * @return count of bytes waiting for writing to line
+     */
+    int getSize() {
+        return bufferSize + 1;
+    }
+
     boolean isEmpty() {
         return (bufferSize == -1);
     }
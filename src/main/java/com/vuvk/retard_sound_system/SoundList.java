@@ -19,119 +19,361 @@ import java.util.Arrays;
 import java.util.Collection;
 
 /**
- * class for queue of sounds
+ * class for queue of sounds.
+ * Other threads only send commands to list, the sounds are changed by mixer thread in {@link #update(long, int)}
  * @author vuvk
  */
 class SoundList {
-    final static int MAX_SOUNDS = 8;        
-    final Sound[] sounds = new Sound[MAX_SOUNDS];
+    final static int MAX_COMMANDS = 1024;
+    /** frame of command, which is applied at once */
+    final static long NOW = Long.MIN_VALUE;
+    final SoundBasis[] sounds;
+    /** when sound was added - for stealing of oldest */
+    private final long[] startOrder;
+    /** voice is stolen and fades out, it doesn't occupy place of voice */
+    private final boolean[] stolen;
+    private int stolenCount = 0;
+    private long startCounter = 0;
+    private final int maxSounds;
     int size = 0;
+    private final CommandQueue commands = new CommandQueue(MAX_COMMANDS);
+    private volatile StealPolicy stealPolicy = StealPolicy.LOWEST_PRIORITY;
 
-    void add(Sound sound) {
+    SoundList() {
+        this(SoundSystem.getMaxSounds());
+    }
+
+    /**
+     * @param maxSounds count of voices mixed at once
+     */
+    SoundList(int maxSounds) {
+        this.maxSounds = maxSounds;
+        // место для затухания вытесненных звуков
+        sounds = new SoundBasis[maxSounds * 2];
+        startOrder = new long[maxSounds * 2];
+        stolen = new boolean[maxSounds * 2];
+    }
+
+    void setStealPolicy(StealPolicy policy) {
+        stealPolicy = (policy != null) ? policy : StealPolicy.NONE;
+    }
+
+    StealPolicy getStealPolicy() {
+        return stealPolicy;
+    }
+
+    /**
+     * play sound from any thread
+     */
+    void add(SoundBasis sound) {
+        add(sound, NOW);
+    }
+
+    /**
+     * play sound from any thread at frame of mixer clock
+     * @param frame frame of start or {@link #NOW}
+     */
+    void add(SoundBasis sound, long frame) {
         if (sound == null) {
             return;
         }
 
-        if (!isFull()) {
-            sounds[size++] = sound;
+        send(CommandQueue.PLAY, sound, frame);
+    }
+
+    void addAll(Collection<? extends SoundBasis> forAdd) {
+        for (SoundBasis snd : forAdd) {
+            add(snd);
         }
     }
 
-    void addAll(Collection<Sound> forAdd) {
-        for (Sound snd : forAdd) {
-            if (!isFull()) {
-                add(snd);
-            } else {
-                break;
+    /**
+     * stop sound from any thread
+     */
+    void remove(SoundBasis sound) {
+        remove(sound, NOW);
+    }
+
+    /**
+     * stop sound from any thread at frame of mixer clock
+     * @param frame frame of stop or {@link #NOW}
+     */
+    void remove(SoundBasis sound, long frame) {
+        if (sound == null) {
+            return;
+        }
+
+        send(CommandQueue.STOP, sound, frame);
+    }
+
+    void removeAll(Collection<? extends SoundBasis> forDel) {
+        for (SoundBasis snd : forDel) {
+            remove(snd);
+        }
+    }
+
+    /**
+     * stop all sounds from any thread at once
+     */
+    void clear() {
+        send(CommandQueue.CLEAR, null, NOW);
+    }
+
+    /**
+     * stop all sounds from any thread with short fade out
+     */
+    void stopAll() {
+        send(CommandQueue.STOP_ALL, null, NOW);
+    }
+
+    /**
+     * wait while queue is full and mixer is working
+     */
+    private void send(int command, SoundBasis sound, long frame) {
+        while (!commands.offer(command, sound, frame)) {
+            if (!SoundSystem.isStarted()) {
+                // некому разбирать команды
+                SoundSystem.REJECTED.incrementAndGet();
+                return;
             }
+            Thread.yield();
         }
     }
 
-    void addAll(SoundList forAdd) {
-        if (forAdd.isEmpty()) {
-            return;
+    /**
+     * apply commands of other threads. Only for mixer thread
+     * @param frame frame of mixer clock, which is mixed next
+     * @param fadeFrames length of fade out of sound stopped without frame
+     */
+    void update(long frame, int fadeFrames) {
+        while (commands.poll()) {
+            SoundBasis sound = commands.getPolledSound();
+            switch (commands.getPolledCommand()) {
+                case CommandQueue.PLAY :
+                    // перезапуск или повторное проигрывание - перематываем в потоке микшера
+                    if (sound.getStreamPosition() > 0) {
+                        sound.rewind();
+                    }
+                    sound.startFrame = commands.getPolledFrame();
+                    sound.stopFrame  = Long.MAX_VALUE;
+                    int index = indexOf(sound);
+                    if (index != -1 && stolen[index]) {
+                        // вытесненный звук снова занимает голос
+                        cut(index);
+                        index = -1;
+                    }
+                    if (index == -1) {
+                        insert(sound, frame, fadeFrames);
+                    }
+                    break;
+                case CommandQueue.STOP :
+                    if (contains(sound)) {
+                        // микшер приглушит и остановит звук на нужном кадре
+                        sound.stopFrame = (commands.getPolledFrame() == NOW) ? getFadedStop(sound, frame, fadeFrames) 
+                                                                             : commands.getPolledFrame();
+                    }
+                    break;
+                case CommandQueue.STOP_ALL :
+                    for (int i = 0; i < size; ++i) {
+                        sounds[i].stopFrame = getFadedStop(sounds[i], frame, fadeFrames);
+                    }
+                    break;
+                case CommandQueue.CLEAR :
+                    removeAll();
+                    break;
+            }
         }
+    }
 
-        Sound[] data = forAdd.getSounds();
-        for (int i = 0; i < forAdd.getSize(); ++i) {
-            if (!isFull()) {
-                add(data[i]);
-            } else {
-                break;
+    /**
+     * stop all sounds and drop commands at once. Only when mixer thread is stopped
+     */
+    void reset() {
+        while (commands.poll()) {
+            SoundBasis sound = commands.getPolledSound();
+            // звук ждал начала проигрывания
+            if (sound != null && !contains(sound)) {
+                sound.setPlaying(false);
+                sound.released();
             }
         }
+        removeAll();
     }
 
-    void remove(Sound sound) {
-        if (sound == null) {
-            return;
+    private void removeAll() {
+        for (int i = 0; i < size; ++i) {
+            sounds[i].setPlaying(false);
+            sounds[i].released();
         }
+        Arrays.fill(sounds, null);
+        Arrays.fill(stolen, false);
+        stolenCount = 0;
+        size = 0;
+    }
 
-        if (!isEmpty()) {
-            for (int i = 0; i < size; ++i) {
-                if (sounds[i].equals(sound)) {
-                    sounds[i] = sounds[--size];
-                    sounds[size] = null;
-                    break;
-                }
+    /**
+     * @return frame of stop after fade out, sound not started yet is stopped at once
+     */
+    private static long getFadedStop(SoundBasis sound, long frame, int fadeFrames) {
+        if (sound.startFrame != NOW && sound.startFrame >= frame) {
+            return frame;
+        }
+        return Math.min(sound.stopFrame, frame + fadeFrames);
+    }
+
+    /**
+     * add sound to free voice or instead of stolen one. Stolen sound fades out like stopped one
+     * @param frame frame of mixer clock, which is mixed next
+     * @param fadeFrames length of fade out of stolen sound
+     */
+    private void insert(SoundBasis sound, long frame, int fadeFrames) {
+        if (isFull()) {
+            final int victim = findVictim(sound);
+            if (victim == -1) {
+                // некого вытеснить - звук не играется
+                SoundSystem.DROPS.incrementAndGet();
+                sound.setPlaying(false);
+                sound.released();
+                return;
             }
+            sounds[victim].setPlaying(false);
+            sounds[victim].stopFrame = getFadedStop(sounds[victim], frame, fadeFrames);
+            stolen[victim] = true;
+            ++stolenCount;
+            SoundSystem.STEALS.incrementAndGet();
         }
+        if (size == sounds.length) {
+            // слишком много затуханий - обрываем ближайшее к концу
+            removeAt(findNearestStop());
+        }
+
+        final int index = size++;
+        sounds[index] = sound;
+        startOrder[index] = startCounter++;
+        stolen[index] = false;
+        sound.gainReset = true;
+        sound.setPlaying(true);
     }
 
-    void removeAll(Collection<Sound> forDel) {
-        for (Sound snd : forDel) {
-            if (!isEmpty()) {
-                remove(snd);
-            } else {
-                break;
+    /**
+     * @return index of stolen voice, which ends first
+     */
+    private int findNearestStop() {
+        int nearest = -1;
+        for (int i = 0; i < size; ++i) {
+            if (stolen[i] && (nearest == -1 || sounds[i].stopFrame < sounds[nearest].stopFrame)) {
+                nearest = i;
             }
         }
+        return nearest;
     }
 
-    void removeAll(SoundList forDel) {
-        if (forDel.isEmpty()) {
-            return;
+    /**
+     * find voice for stealing by current policy
+     * @param sound new sound
+     * @return index of voice or -1 if all voices are more important
+     */
+    private int findVictim(SoundBasis sound) {
+        if (stealPolicy == StealPolicy.NONE) {
+            return -1;
         }
 
-        Sound[] data = forDel.getSounds();
-        for (int i = 0; i < forDel.getSize(); ++i) {
-            if (!isEmpty()) {
-                remove(data[i]);
-            } else {
-                break;
+        final int priority = sound.getPriority();
+        int victim = -1;
+        for (int i = 0; i < size; ++i) {
+            final SoundBasis candidate = sounds[i];
+            // более важные звуки не вытесняются никогда
+            if (stolen[i] || candidate.getPriority() > priority) {
+                continue;
+            }
+            if (victim == -1 || isBetterVictim(i, victim)) {
+                victim = i;
             }
         }
+        return victim;
+    }
+
+    private boolean isBetterVictim(int candidate, int victim) {
+        final SoundBasis c = sounds[candidate];
+        final SoundBasis v = sounds[victim];
+        switch (stealPolicy) {
+            case QUIETEST :
+                if (c.getVolume() != v.getVolume()) {
+                    return c.getVolume() < v.getVolume();
+                }
+                break;
+            case LOWEST_PRIORITY :
+                if (c.getPriority() != v.getPriority()) {
+                    return c.getPriority() < v.getPriority();
+                }
+                break;
+            default :
+                break;
+        }
+        return startOrder[candidate] < startOrder[victim];
+    }
+
+    /**
+     * remove sound by index. Only for mixer thread
+     */
+    void removeAt(int index) {
+        sounds[index].released();
+        cut(index);
+    }
+
+    /**
+     * remove sound by index without releasing
+     */
+    private void cut(int index) {
+        if (stolen[index]) {
+            --stolenCount;
+        }
+        --size;
+        sounds[index] = sounds[size];
+        startOrder[index] = startOrder[size];
+        stolen[index] = stolen[size];
+        sounds[size] = null;
+        stolen[size] = false;
     }
 
     int getSize() {
         return size;
     }
 
-    void clear() {
-        Arrays.fill(sounds, null);
-        size = 0;
+    boolean contains(SoundBasis sound) {
+        return indexOf(sound) != -1;
     }
 
-    boolean contains(Sound sound) {
+    private int indexOf(SoundBasis sound) {
         if (sound != null) { 
             for (int i = 0; i < size; ++i) {
-                if (sounds[i].equals(sound)) {
-                    return true;
+                if (sounds[i] == sound) {
+                    return i;
                 }
             }                
         }
-        return false;
+        return -1;
     }
 
+    /**
+     * no sounds and no commands. Only for mixer thread
+     */
     boolean isEmpty() {
-        return size == 0;
+        return size == 0 && commands.isEmpty();
     }
 
+    /**
+     * all voices are busy, stolen sounds fading out aren't counted
+     */
     boolean isFull() {
-        return (size == MAX_SOUNDS);
+        return (size - stolenCount >= maxSounds);
+    }
+
+    int getCapacity() {
+        return maxSounds;
     }
 
-    final Sound[] getSounds() {
+    final SoundBasis[] getSounds() {
         return sounds;
     }
 }
@@ -0,0 +1,102 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * snapshot of work of sound system from {@link SoundSystem#getMetrics()}
+ * @author vuvk
+ */
+public final class SoundMetrics {
+    private final LineMetrics stereoLine;
+    private final LineMetrics monoLine;
+    private final long underruns;
+    private final long steals;
+    private final long drops;
+    private final long rejected;
+    private final Histogram decodeTime;
+
+    SoundMetrics(LineMetrics stereoLine, LineMetrics monoLine,
+                 long underruns, long steals, long drops, long rejected,
+                 Histogram decodeTime) {
+        this.stereoLine = stereoLine;
+        this.monoLine   = monoLine;
+        this.underruns  = underruns;
+        this.steals     = steals;
+        this.drops      = drops;
+        this.rejected   = rejected;
+        this.decodeTime = decodeTime;
+    }
+
+    /**
+     * @return metrics of stereo line or null if system isn't started
+     */
+    public LineMetrics getStereoLine() {
+        return stereoLine;
+    }
+
+    /**
+     * @return metrics of mono line or null if it isn't used ({@link Config#setSingleLine(boolean)})
+     */
+    public LineMetrics getMonoLine() {
+        return monoLine;
+    }
+
+    /**
+     * @return how many times streamed sounds weren't decoded in time
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * @return count of sounds stopped for playing of new ones
+     */
+    public long getSteals() {
+        return steals;
+    }
+
+    /**
+     * @return count of sounds not played because all voices were busy with more important sounds
+     */
+    public long getDrops() {
+        return drops;
+    }
+
+    /**
+     * @return count of play and stop commands thrown away because mixer wasn't running
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return nanoseconds of decoding of streamed sounds by one pass of worker
+     */
+    public Histogram getDecodeTime() {
+        return decodeTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SoundMetrics{stereoLine=" + stereoLine + 
+               ", monoLine=" + monoLine + 
+               ", underruns=" + underruns + 
+               ", steals=" + steals + 
+               ", drops=" + drops + 
+               ", rejected=" + rejected + 
+               ", decodeTime=" + decodeTime + "}";
+    }
+}
@@ -0,0 +1,618 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * block mixer - mixes a whole period of frames from every sound per update
+ * @author vuvk
+ */
+class SoundMixer {
+    /**
+     * soft clipping: sound below CLIP_KNEE is passed as is, above it y = x - (x - CLIP_KNEE)^2 * CLIP_FACTOR.
+     * The curve reaches 1.0 smoothly at CLIP_LIMIT, louder sound is clipped
+     */
+    private static final float CLIP_KNEE   = 0.85f;
+    private static final float CLIP_LIMIT  = 2.0f - CLIP_KNEE;
+    private static final float CLIP_FACTOR = 1.0f / (2.0f * (CLIP_LIMIT - CLIP_KNEE));
+    /** length of fade out of stopped sound */
+    static final int STOP_FADE_MILLIS = 10;
+    private static final Bus[] BUSES = Bus.values();
+    /** periods without starvation before target fill of line goes down */
+    private static final int CALM_PERIODS = 1000;
+
+    private final AudioOutput line;
+    private final SoundCache cache;
+    private final int channels;
+    private final int frameSize;
+    private final int periodFrames;
+    private final int periodSize;
+    /** bytes played by line per second */
+    private final long byteRate;
+
+    /** bytes readed from one sound */
+    private final byte[] buffer;
+    /** sum of samples - master bus */
+    private final float[] mixer;
+    /** sum of samples of every bus except master */
+    private final float[][] buses;
+    /** count of used samples of every bus */
+    private final int[] busSizes;
+    /** gains of buses at end of last period */
+    private final float[] busGains;
+    /** mixed period */
+    private final byte[] result;
+    private final LineMetrics metrics = new LineMetrics();
+    /** less bytes in line isn't kept even after long time without starvation */
+    private final int minFill;
+    /** bytes kept in line, it grows after starvation and goes down slowly */
+    private int targetFill;
+    private int calmPeriods = 0;
+    /** nothing was mixed in last period, because decoders didn't prepare sounds */
+    private boolean starved = false;
+    /** sound ended in last {@link #readPeriod(SoundBasis, int)} */
+    private boolean finished = false;
+    /** length of fade out before stop */
+    private final int stopFadeFrames;
+    /** clock - frame of line, which is mixed next */
+    private volatile long frame = 0;
+    /** previous period was written, so empty line means starvation */
+    private boolean streaming = false;
+    /** keep so little sound in line as it can without starvation */
+    private final boolean lowLatency;
+
+    /**
+     * mixer without line - only for {@link #mix(SoundList)}
+     * @param channels count of channels in mixed period
+     * @param periodFrames count of frames mixed per update
+     */
+    SoundMixer(int channels, int periodFrames) {
+        this(channels, periodFrames, null, null, false);
+    }
+
+    /**
+     * @param line output for write (mono or stereo)
+     * @param periodFrames count of frames mixed per update
+     * @param cache cache for line or null if line written directly
+     */
+    SoundMixer(AudioOutput line, int periodFrames, SoundCache cache) {
+        this(line, periodFrames, cache, false);
+    }
+
+    /**
+     * @param line output for write (mono or stereo)
+     * @param periodFrames count of frames mixed per update
+     * @param cache cache for line or null if line written directly
+     * @param lowLatency adapt fill of line to starvations ({@link OutputMode#LOW_LATENCY})
+     */
+    SoundMixer(AudioOutput line, int periodFrames, SoundCache cache, boolean lowLatency) {
+        this(line.getFormat().getChannels(), periodFrames, line, cache, lowLatency);
+    }
+
+    private SoundMixer(int channels, int periodFrames, AudioOutput line, SoundCache cache, boolean lowLatency) {
+        this.line  = line;
+        this.cache = cache;
+        this.lowLatency = lowLatency;
+
+        this.channels     = channels;
+        this.periodFrames = periodFrames;
+        frameSize  = channels * (SoundSystem.SAMPLE_SIZE_IN_BITS >> 3);
+        periodSize = periodFrames * frameSize;
+        byteRate   = (long) SoundSystem.getSampleRate() * frameSize;
+        stopFadeFrames = Math.max(1, SoundSystem.getSampleRate() * STOP_FADE_MILLIS / 1000);
+
+        buffer  = new byte[periodSize];
+        mixer   = new float[periodSize >> 1];
+        buses   = new float[BUSES.length][periodSize >> 1];
+        busSizes = new int[BUSES.length];
+        busGains = new float[BUSES.length];
+        final boolean anySolo = Bus.isAnySolo();
+        for (int b = 0; b < BUSES.length; ++b) {
+            busGains[b] = BUSES[b].getGain(anySolo);
+        }
+        result  = new byte[periodSize];
+
+        if (line != null) {
+            int bufferSize = line.getBufferSize();
+            minFill = Math.min(periodSize << 1, bufferSize);
+            targetFill = lowLatency ? minFill : bufferSize;
+            metrics.setTargetFill(targetFill);
+        } else {
+            minFill = 0;
+            targetFill = 0;
+        }
+    }
+
+    AudioOutput getLine() {
+        return line;
+    }
+
+    LineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return frame of line, which is mixed next
+     */
+    long getFrame() {
+        return frame;
+    }
+
+    /**
+     * can be called from any thread
+     * @return frame of line, which is played now
+     */
+    long getOutputFrame() {
+        return Math.max(0, frame - getQueuedFrames());
+    }
+
+    /**
+     * @return count of mixed frames, which aren't played yet
+     */
+    private int getQueuedFrames() {
+        int queued = (cache != null) ? cache.getSize() : 0;
+        if (line != null && line.getBufferSize() != Integer.MAX_VALUE) {
+            queued += line.getBufferSize() - line.available();
+        }
+        return queued / frameSize;
+    }
+
+    /**
+     * park current thread until new sounds. 
+     * Clock goes on by time of sleep, which is left after playing of queued sound
+     */
+    void idle() {
+        final long start = System.nanoTime();
+        final int queued = getQueuedFrames();
+        LockSupport.park();
+        final long idleFrames = SoundSystem.toFrames(System.nanoTime() - start) - queued;
+        if (idleFrames > 0) {
+            frame += idleFrames;
+        }
+    }
+
+    /**
+     * mixed period after last {@link #mix(SoundList)}
+     */
+    byte[] getResult() {
+        return result;
+    }
+
+    /**
+     * nothing to mix and nothing to write
+     * @param sounds list of sounds in system (mono or stereo)
+     */
+    boolean isIdle(final SoundList sounds) {
+        return sounds.isEmpty() && (cache == null || cache.isEmpty());
+    }
+
+    /**
+     * park current thread until line has room for next period and keeps not more than target fill
+     */
+    void waitForLine() {
+        if (line == null) {
+            return;
+        }
+
+        final int bufferSize = line.getBufferSize();
+        final int free = line.available();
+        final int queued = bufferSize - free;
+        metrics.recordFill(queued);
+        if (bufferSize == Integer.MAX_VALUE) {
+            // вывод без устройства - пишем сразу
+            return;
+        }
+
+        if (lowLatency) {
+            adaptTargetFill(queued, bufferSize);
+        }
+
+        int excess = queued + Math.min(periodSize, bufferSize) - targetFill;
+        if (excess > 0) {
+            LockSupport.parkNanos(excess * 1000000000L / byteRate);
+        }
+    }
+
+    /**
+     * more bytes in line after starvation, less after long time without it
+     */
+    private void adaptTargetFill(final int queued, final int bufferSize) {
+        if (streaming && queued < frameSize) {
+            // линия доиграла всё - был слышен щелчок
+            targetFill = Math.min(targetFill + periodSize, bufferSize);
+            calmPeriods = 0;
+            metrics.addStarvation(targetFill);
+        } else if (++calmPeriods >= CALM_PERIODS && targetFill > minFill) {
+            targetFill = Math.max(targetFill - (periodSize >> 2), minFill);
+            calmPeriods = 0;
+            metrics.setTargetFill(targetFill);
+        }
+    }
+
+    /**
+     * mix one period of all sounds and write it to line (or cache)
+     * @param sounds list of sounds in system (mono or stereo)
+     */
+    void update(final SoundList sounds) {
+        long start = System.nanoTime();
+        int mixedSize = mix(sounds);
+        metrics.recordMix(System.nanoTime() - start, sounds.getSize());
+        streaming = (mixedSize > 0);
+        frame += mixedSize / frameSize;
+
+        if (starved && mixedSize == 0) {
+            // декодер отстал - ждём период, а не крутимся впустую
+            LockSupport.parkNanos((long) periodSize * 1000000000L / byteRate);
+        }
+
+        if (mixedSize > 0) {
+            if (cache != null) {
+                cache.write(result, 0, mixedSize);
+            } else {
+                writeToLine(mixedSize);
+            }
+        } else if (cache != null && !cache.isEmpty()) {
+            cache.drain();
+        }
+    }
+
+    /**
+     * mix one period of all sounds to result. Doesn't allocate memory
+     * @param sounds list of sounds in system (mono or stereo)
+     * @return count of mixed bytes in result
+     */
+    int mix(final SoundList sounds) {
+        int soundsCount = 0;
+        int mixedSize = 0;
+        starved = false;
+
+        final long periodStart = frame;
+        final long periodEnd = periodStart + periodFrames;
+        sounds.update(periodStart, stopFadeFrames);
+
+        final SoundBasis[] data = sounds.getSounds();
+        // с конца, т.к. остановленный звук заменяется последним в списке
+        for (int s = sounds.getSize() - 1; s >= 0; --s) {
+            final SoundBasis sound = data[s];
+
+            if (sound.stopFrame <= periodStart) {
+                sound.setPlaying(false);
+                sounds.removeAt(s);
+                continue;
+            }
+            if (sound.startFrame >= periodEnd) {
+                // ещё не время
+                continue;
+            }
+
+            // начало и конец звука внутри периода
+            final int startOffset = (sound.startFrame > periodStart) ? (int) (sound.startFrame - periodStart) : 0;
+            final int endOffset = (sound.stopFrame < periodEnd) ? (int) (sound.stopFrame - periodStart) : periodFrames;
+            final int soundChannels = sound.getChannels();
+            final int bus = sound.getBus().ordinal();
+            final int cntReaded = readPeriod(sound, (endOffset - startOffset) * soundChannels * 2);
+            if (cntReaded > 0) {
+                final int frames = cntReaded / (soundChannels * 2);
+                if (sound.gainReset) {
+                    updateGain(sound, 0);
+                }
+                final float left  = sound.gainLeft;
+                final float right = sound.gainRight;
+                updateGain(sound, frames);
+                if (left > 0.0f || right > 0.0f || sound.gainLeft > 0.0f || sound.gainRight > 0.0f) {
+                    mixWithFade(sound, bus, periodStart + startOffset, startOffset, frames, left, right);
+                    ++soundsCount;
+
+                    final int cntMixed = (startOffset + frames) * frameSize;
+                    if (cntMixed > mixedSize) {
+                        mixedSize = cntMixed;
+                    }
+                }
+            } else if (cntReaded == 0 && !finished) {
+                starved = true;
+            }
+
+            if (finished || sound.stopFrame <= periodEnd) {
+                sound.setPlaying(false);
+                sounds.removeAt(s);
+            }
+        }
+
+        final boolean anySolo = Bus.isAnySolo();
+        if (soundsCount == 0) {
+            for (int b = 0; b < BUSES.length; ++b) {
+                busGains[b] = BUSES[b].getGain(anySolo);
+            }
+            if (starved || sounds.getSize() == 0) {
+                return 0;
+            }
+            // звуки ждут своего кадра или молчат - время идёт
+            Arrays.fill(result, 0, periodSize, (byte) 0);
+            return periodSize;
+        }
+
+        // шины -> мастер
+        for (int b = 1; b < BUSES.length; ++b) {
+            final float busGain = BUSES[b].getGain(anySolo);
+            if (busSizes[b] > 0) {
+                sumBus(buses[b], busSizes[b], busGains[b], busGain);
+                busSizes[b] = 0;
+            }
+            busGains[b] = busGain;
+        }
+
+        // сумма -> громкость -> мягкое ограничение
+        final float masterGain = BUSES[0].getGain(anySolo);
+        final float gain = busGains[0] / 32768.0f;
+        final float gainStep = (masterGain - busGains[0]) / 32768.0f / (mixedSize / frameSize);
+        final int channelsShift = channels - 1;
+        busGains[0] = masterGain;
+        for (int i = 0, n = 0; n < mixedSize; n += 2, ++i) {
+            float value = mixer[i] * (gain + gainStep * (i >> channelsShift));
+            final float magnitude = Math.abs(value);
+            if (magnitude > CLIP_KNEE) {
+                final float over = Math.min(magnitude, CLIP_LIMIT) - CLIP_KNEE;
+                final float clipped = CLIP_KNEE + over - over * over * CLIP_FACTOR;
+                value = (value > 0.0f) ? clipped : -clipped;
+            }
+            // тихий звук без изменения громкости проходит бит в бит
+            int sample = Math.min(Short.MAX_VALUE, (int) (value * 32768.0f));
+            result[n    ] = (byte) sample;
+            result[n + 1] = (byte) (sample >> 8);
+
+            mixer[i] = 0.0f;
+        }
+
+        return mixedSize;
+    }
+
+    /**
+     * add bus to master with gain changed linearly and clear it
+     * @param size count of used samples of bus
+     */
+    private void sumBus(final float[] bus, final int size, final float from, final float to) {
+        final float step = (to - from) / (size / channels);
+        float gain = from;
+        if (channels == 1) {
+            for (int i = 0; i < size; ++i) {
+                mixer[i] += bus[i] * gain;
+                bus[i] = 0.0f;
+                gain += step;
+            }
+        } else {
+            for (int i = 0; i < size; i += 2) {
+                mixer[i    ] += bus[i    ] * gain;
+                mixer[i + 1] += bus[i + 1] * gain;
+                bus[i    ] = 0.0f;
+                bus[i + 1] = 0.0f;
+                gain += step;
+            }
+        }
+    }
+
+    /**
+     * move gains of sound to its volume and pan. 
+     * Changed volume is reached after one period or after time of {@link SoundBasis#fadeTo(double, int)}
+     * @param frames count of frames mixed in this period
+     */
+    private void updateGain(final SoundBasis sound, final int frames) {
+        final double volume = sound.getVolume();
+        final double pan = sound.getPan();
+        final float targetLeft  = (float) volume * ((channels == 1) ? 1.0f : getLeftGain(pan));
+        final float targetRight = (float) volume * ((channels == 1) ? 1.0f : getRightGain(pan));
+
+        if (sound.gainReset) {
+            // новый звук начинается сразу с нужной громкостью
+            sound.gainReset = false;
+            sound.gainLeft  = targetLeft;
+            sound.gainRight = targetRight;
+            sound.mixVolume = volume;
+            sound.mixPan    = pan;
+            sound.rampFrames = 0;
+            return;
+        }
+
+        if (volume != sound.mixVolume || pan != sound.mixPan) {
+            sound.mixVolume = volume;
+            sound.mixPan    = pan;
+            final int fadeFrames = sound.getFadeFrames();
+            sound.rampFrames = (fadeFrames > 0) ? fadeFrames : periodFrames;
+        }
+
+        if (sound.rampFrames > 0) {
+            final int count = Math.min(frames, sound.rampFrames);
+            final float part = (float) count / sound.rampFrames;
+            sound.rampFrames -= count;
+            if (sound.rampFrames == 0) {
+                sound.gainLeft  = targetLeft;
+                sound.gainRight = targetRight;
+            } else {
+                sound.gainLeft  += (targetLeft  - sound.gainLeft)  * part;
+                sound.gainRight += (targetRight - sound.gainRight) * part;
+            }
+        }
+    }
+
+    /**
+     * mix readed frames with linear ramp of gains and fade out before stop frame of sound
+     * @param bus index of bus of sound
+     * @param firstFrame frame of clock of first readed frame
+     * @param startOffset first frame in period
+     * @param frames count of readed frames
+     * @param left gain of left channel at begin
+     * @param right gain of right channel at begin
+     */
+    private void mixWithFade(final SoundBasis sound, final int bus, final long firstFrame, final int startOffset, final int frames, 
+                             final float left, final float right) {
+        final long fadeStart = (sound.stopFrame == Long.MAX_VALUE) ? Long.MAX_VALUE : sound.stopFrame - stopFadeFrames;
+        if (fadeStart >= firstFrame + frames) {
+            mixRamp(sound, bus, startOffset, 0, frames, left, right, sound.gainLeft, sound.gainRight);
+            return;
+        }
+
+        // до затухания и во время него
+        final int split = (fadeStart > firstFrame) ? (int) (fadeStart - firstFrame) : 0;
+        final float part = (float) split / frames;
+        final float splitLeft  = left  + (sound.gainLeft  - left)  * part;
+        final float splitRight = right + (sound.gainRight - right) * part;
+        mixRamp(sound, bus, startOffset, 0, split, left, right, splitLeft, splitRight);
+
+        final float fadeFrom = getFade(sound, firstFrame + split);
+        final float fadeTo   = getFade(sound, firstFrame + frames);
+        mixRamp(sound, bus, startOffset + split, split, frames - split, 
+                splitLeft * fadeFrom, splitRight * fadeFrom, sound.gainLeft * fadeTo, sound.gainRight * fadeTo);
+    }
+
+    /**
+     * @return gain of fade out before stop of sound at frame
+     */
+    private float getFade(final SoundBasis sound, final long frame) {
+        final long left = sound.stopFrame - frame;
+        return (left >= stopFadeFrames) ? 1.0f : (left <= 0) ? 0.0f : (float) left / stopFadeFrames;
+    }
+
+    /**
+     * mix frames of buffer to bus with gains changed linearly
+     * @param bus index of bus
+     * @param startOffset first frame in period
+     * @param from first frame in buffer
+     * @param frames count of frames
+     */
+    private void mixRamp(final SoundBasis sound, final int bus, final int startOffset, final int from, final int frames,
+                         final float leftFrom, final float rightFrom, final float leftTo, final float rightTo) {
+        if (frames <= 0) {
+            return;
+        }
+
+        final int soundChannels = sound.getChannels();
+        final float leftStep  = (leftTo  - leftFrom)  / frames;
+        final float rightStep = (rightTo - rightFrom) / frames;
+        final int start = startOffset * channels;
+        final int offset = from * soundChannels * 2;
+        final int length = frames * soundChannels * 2;
+        final float[] out = (bus == 0) ? mixer : buses[bus];
+        if (channels == 1) {
+            mixSamples(out, start, offset, length, leftFrom, leftStep);
+        } else if (soundChannels == 1) {
+            mixMonoToStereo(out, start, offset, length, leftFrom, rightFrom, leftStep, rightStep);
+        } else {
+            mixStereo(out, start, offset, length, leftFrom, rightFrom, leftStep, rightStep);
+        }
+        if (bus != 0) {
+            busSizes[bus] = Math.max(busSizes[bus], (startOffset + frames) * channels);
+        }
+    }
+
+    private static float getLeftGain(final double pan) {
+        return (pan > 0.0) ? 1.0f - (float) pan : 1.0f;
+    }
+
+    private static float getRightGain(final double pan) {
+        return (pan < 0.0) ? 1.0f + (float) pan : 1.0f;
+    }
+
+    /**
+     * mix samples with the same channels as line
+     * @param out sum of samples of bus
+     * @param start index of first sample in bus
+     * @param offset first byte in buffer
+     * @param step change of volume per frame
+     */
+    private void mixSamples(final float[] out, final int start, final int offset, final int length, float volume, final float step) {
+        for (int i = offset, n = start, end = offset + length; i < end; i += 2, ++n) {
+            int value = (short)(((buffer[i + 1] & 0xFF) << 8) | (buffer[i] & 0xFF));
+            out[n] += value * volume;
+            volume += step;
+        }
+    }
+
+    /**
+     * mix stereo sound to stereo line with panning
+     * @param out sum of samples of bus
+     * @param start index of first sample in bus
+     * @param offset first byte in buffer
+     */
+    private void mixStereo(final float[] out, final int start, final int offset, final int length, float left, float right, 
+                           final float leftStep, final float rightStep) {
+        for (int i = offset, n = start, end = offset + length; i < end; i += 4, n += 2) {
+            int valueLeft  = (short)(((buffer[i + 1] & 0xFF) << 8) | (buffer[i    ] & 0xFF));
+            int valueRight = (short)(((buffer[i + 3] & 0xFF) << 8) | (buffer[i + 2] & 0xFF));
+
+            out[n    ] += valueLeft  * left;
+            out[n + 1] += valueRight * right;
+            left  += leftStep;
+            right += rightStep;
+        }
+    }
+
+    /**
+     * mix mono sound to both channels of stereo line with panning
+     * @param out sum of samples of bus
+     * @param start index of first sample in bus
+     * @param offset first byte in buffer
+     */
+    private void mixMonoToStereo(final float[] out, final int start, final int offset, final int length, float left, float right, 
+                                 final float leftStep, final float rightStep) {
+        for (int i = offset, n = start, end = offset + length; i < end; i += 2, n += 2) {
+            int value = (short)(((buffer[i + 1] & 0xFF) << 8) | (buffer[i] & 0xFF));
+
+            out[n    ] += value * left;
+            out[n + 1] += value * right;
+            left  += leftStep;
+            right += rightStep;
+        }
+    }
+
+    /**
+     * read whole period from sound, rewinding looped sound and stopping finished
+     * @param length size of period in bytes of sound
+     * @return count of readed bytes
+     */
+    private int readPeriod(final SoundBasis sound, final int length) {
+        int offset = 0;
+        boolean rewinded = false;
+        finished = false;
+
+        while (offset < length) {
+            int cntReaded = sound.read(buffer, offset, length - offset);
+            if (cntReaded > 0) {
+                offset += cntReaded;
+                rewinded = false;
+            } else if (cntReaded == -1) {
+                // не крутимся вечно на пустом звуке
+                if (sound.isLooping() && !rewinded) {
+                    sound.rewind();
+                    rewinded = true;
+                } else {
+                    if (!sound.isLooping()) {
+                        finished = true;
+                    }
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+
+        return offset;
+    }
+
+    private void writeToLine(int length) {
+        line.write(result, 0, length);
+    }
+}
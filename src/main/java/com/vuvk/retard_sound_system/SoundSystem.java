@@ -20,17 +20,20 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 /**
@@ -40,130 +43,356 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 public final class SoundSystem {
     private static final Logger LOG = Logger.getLogger(SoundSystem.class.getName());    
     
+    /** default sample rate, see {@link Config#setSampleRate(int)} */
     final static int SAMPLE_RATE = 44100;
     final static int SAMPLE_SIZE_IN_BITS = 16;
     final static int MONO_CHANNELS = 1;
     final static int STEREO_CHANNELS = 2;
     final static boolean SIGNED = true;
     final static boolean BIG_ENDIAN = false;
-    final static int MAX_WRITE_LINE_TRIES = 100;
-    /** use this if you want read sounds to cache before write it to line */
-    final static boolean CACHED = true;
-    /** use this to increase speed but reduce quality  */
-    final static boolean FAST_MODE = false;
+    /** size of line buffer in {@link OutputMode#LOW_LATENCY} mode if it isn't set in config */
+    final static int LOW_LATENCY_BUFFER_MILLIS = 50;
     
-    private static boolean started = false;
+    private static volatile boolean started = false;
+    private static volatile PcmDiskCache PCM_CACHE = null;
+    /** settings of last start */
+    private static volatile Config config = new Config();
     
-    private static SourceDataLine MONO_LINE   = null;
-    private static SourceDataLine STEREO_LINE = null;
+    private static AudioOutput MONO_LINE   = null;
+    private static AudioOutput STEREO_LINE = null;
         
-    final static List<Music> MUSICS = new ArrayList<>();
+    private static volatile SoundList MONO_SOUNDS   = new SoundList();
+    private static volatile SoundList STEREO_SOUNDS = new SoundList();
     
-    private static final SoundList MONO_SOUNDS   = new SoundList();
-    private static final SoundList STEREO_SOUNDS = new SoundList();
-    
-    private final static int CACHE_SIZE = 2048;
+    /** default size of line cache in frames */
+    final static int CACHE_FRAMES = 1024;
+    /** default count of frames mixed from every sound at once */
+    final static int PERIOD_SIZE = 512;
+    /** default count of sounds mixed at once in every line */
+    final static int MAX_SOUNDS = 64;
+    /** milliseconds of streamed sound decoded ahead by workers */
+    private static volatile int prefetchMillis = 250;
+    /** count of periods, when decoded stream wasn't ready */
+    static final AtomicLong UNDERRUNS = new AtomicLong();
+    /** count of sounds stopped for new ones */
+    static final AtomicLong STEALS = new AtomicLong();
+    /** count of sounds, which didn't get voice */
+    static final AtomicLong DROPS = new AtomicLong();
+    /** count of commands thrown away without mixer */
+    static final AtomicLong REJECTED = new AtomicLong();
+    /** nanoseconds of decoding by one pass of worker */
+    static final Histogram DECODE_TIME = new Histogram();
+    private static final String MBEAN_NAME = "com.vuvk.retard_sound_system:type=SoundSystem";
     private static SoundCache MONO_CACHE;
     private static SoundCache STEREO_CACHE;
+    private static volatile SoundMixer MONO_MIXER;
+    private static volatile SoundMixer STEREO_MIXER;
+    private static Thread MONO_THREAD;
+    private static Thread STEREO_THREAD;
     
     private SoundSystem() {}
     
-    private static void init() {
-        try {
-            MONO_LINE = AudioSystem.getSourceDataLine(getAudioMonoFormat());
-            MONO_LINE.open();
-            MONO_LINE.start();
-                        
-            // for init line
-            MONO_LINE.write(new byte[2], 0, 2);
-            MONO_LINE.drain();
-            
-            MONO_CACHE = new SoundCache(CACHE_SIZE, MONO_LINE);
-        } catch (LineUnavailableException ex) {
-            LOG.log(Level.SEVERE, null, ex);
+    private static void init(Config config) {
+        AudioBackend backend = config.getBackend();
+        if (backend == null) {
+            int bufferMillis = config.getLineBufferMillis();
+            if (bufferMillis == 0 && config.getOutputMode() == OutputMode.LOW_LATENCY) {
+                bufferMillis = LOW_LATENCY_BUFFER_MILLIS;
+            }
+            backend = new LineBackend(bufferMillis);
+        }
+        
+        boolean cached = (config.getOutputMode() == OutputMode.CACHED);
+        boolean lowLatency = (config.getOutputMode() == OutputMode.LOW_LATENCY);
+        
+        if (!config.isSingleLine()) {
+            try {
+                MONO_LINE = backend.open(getAudioMonoFormat());
+                MONO_CACHE = new SoundCache(config.getCacheFrames() * MONO_CHANNELS * (SAMPLE_SIZE_IN_BITS >> 3), MONO_LINE);
+                MONO_MIXER = new SoundMixer(MONO_LINE, config.getPeriodSize(), cached ? MONO_CACHE : null, lowLatency);
+            } catch (LineUnavailableException | IOException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
         }
         
         try {
-            STEREO_LINE = AudioSystem.getSourceDataLine(getAudioStereoFormat());
-            STEREO_LINE.open();
-            STEREO_LINE.start();
-            
-            // for init line
-            STEREO_LINE.write(new byte[4], 0, 4);
-            STEREO_LINE.drain();
-            
-            STEREO_CACHE = new SoundCache(CACHE_SIZE << 1, STEREO_LINE);
-        } catch (LineUnavailableException ex) {
+            STEREO_LINE = backend.open(getAudioStereoFormat());
+            STEREO_CACHE = new SoundCache(config.getCacheFrames() * STEREO_CHANNELS * (SAMPLE_SIZE_IN_BITS >> 3), STEREO_LINE);
+            STEREO_MIXER = new SoundMixer(STEREO_LINE, config.getPeriodSize(), cached ? STEREO_CACHE : null, lowLatency);
+        } catch (LineUnavailableException | IOException ex) {
             LOG.log(Level.SEVERE, null, ex);
         }
     }
     
-    public static void start() {    
+    /**
+     * start playing through sound card with default settings
+     */
+    public static void start() {
+        start(new Config());
+    }
+    
+    /**
+     * start playing to any output with default settings
+     * @param backend where mixed sound goes, f.e. {@link NullBackend} for machines without sound card.
+     * Outputs without device are written as fast as sounds are mixed
+     */
+    public static void start(AudioBackend backend) {    
+        start(new Config().setBackend(backend));
+    }
+    
+    /**
+     * start playing with own settings. Settings are checked by {@link Config} setters, 
+     * later changes of config don't affect started system.
+     * Sounds should be loaded after start if sample rate isn't default
+     * @param config settings of sample rate, period, line buffer, voices, output and threads
+     */
+    public static void start(Config config) {    
+        if (config == null) {
+            throw new IllegalArgumentException("config is null");
+        }
+        
         if (!isStarted()) {
-            init();
+            config = config.copy();
+            SoundSystem.config = config;
+            
+            if (STEREO_SOUNDS.getCapacity() != config.getMaxSounds()) {
+                // команды, отправленные после остановки, не переносятся в новые списки
+                MONO_SOUNDS.reset();
+                STEREO_SOUNDS.reset();
+                StealPolicy policy = STEREO_SOUNDS.getStealPolicy();
+                MONO_SOUNDS   = new SoundList(config.getMaxSounds());
+                STEREO_SOUNDS = new SoundList(config.getMaxSounds());
+                setStealPolicy(policy);
+            }
+            
+            init(config);
         
             started = true;
+            SoundWorkers.startDecoders();
 
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    while (isStarted()) {        
-                        // чтобы поток не забивал проц
-                        long prev = System.nanoTime(); 
-                        updateMonoLine();
-                        long delta = System.nanoTime() - prev;
-                        if (delta < 45) {
-                            try {
-                                Thread.sleep(0, (int) (45 - delta));
-                            } catch (InterruptedException ignored) {}
+            if (!config.isSingleLine()) {
+                MONO_THREAD = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (isStarted()) {        
+                            updateMonoLine();
                         }
                     }
-                }
-            }, "RSS Update Mono Line Thread").start();
+                }, "RSS Update Mono Line Thread");
+                MONO_THREAD.setPriority(config.getThreadPriority());
+                MONO_THREAD.start();
+            }
             
-            new Thread(new Runnable() {
+            STEREO_THREAD = new Thread(new Runnable() {
                 @Override
                 public void run() {
                     while (isStarted()) {
-                        // чтобы поток не забивал проц
-                        long prev = System.nanoTime();
                         updateStereoLine();
-                        long delta = System.nanoTime() - prev;
-                        if (delta < 90) {
-                            try {
-                                Thread.sleep(0, (int) (90 - delta));
-                            } catch (InterruptedException ignored) {}
-                        }
                     }
                 }
-            }, "RSS Update Stereo Line Thread").start();
+            }, "RSS Update Stereo Line Thread");
+            STEREO_THREAD.setPriority(config.getThreadPriority());
+            STEREO_THREAD.start();
+            
+            SoundWorkers.execute(MBEAN_SYNC);
         }        
     }
     
+    /**
+     * register bean of metrics while system is started. 
+     * It is done by worker, because first access to JMX is slow
+     */
+    private static final Runnable MBEAN_SYNC = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (this) {
+                try {
+                    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    ObjectName name = new ObjectName(MBEAN_NAME);
+                    if (isStarted() && !server.isRegistered(name)) {
+                        server.registerMBean(new SoundSystemMetrics(), name);
+                    } else if (!isStarted() && server.isRegistered(name)) {
+                        server.unregisterMBean(name);
+                    }
+                } catch (JMException ex) {
+                    LOG.log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+    };
+    
     public static void stop() {
         started = false;
+        SoundWorkers.execute(MBEAN_SYNC);
         
-        stopAll();
+        // будим, чтобы потоки завершились, и ждём - они ещё пишут в выводы
+        join(MONO_THREAD);
+        join(STEREO_THREAD);
+        MONO_THREAD = null;
+        STEREO_THREAD = null;
         
+        // микшеров больше нет - звуки останавливаются сразу в этом потоке
+        MONO_SOUNDS.reset();
+        STEREO_SOUNDS.reset();
+        SoundWorkers.stopDecoders();
+        
+        // остаток смешанного звука
+        if (MONO_CACHE != null) {
+            MONO_CACHE.drain();
+        }
+        if (STEREO_CACHE != null) {
+            STEREO_CACHE.drain();
+        }
+        
+        MONO_MIXER = null;
+        STEREO_MIXER = null;
         MONO_CACHE = null;
         STEREO_CACHE = null;
         
-        MONO_LINE.close();
-        STEREO_LINE.close();
+        if (MONO_LINE != null) {
+            MONO_LINE.close();
+        }
+        if (STEREO_LINE != null) {
+            STEREO_LINE.close();
+        }
         
         MONO_LINE = null;
         STEREO_LINE = null;
     }
 
+    private static void join(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     public static final boolean isStarted() {
         return started;
     }   
     
-    static boolean isPlaying(Sound sound) {
-        return (MONO_SOUNDS.contains(sound) || STEREO_SOUNDS.contains(sound));
+    /**
+     * @return copy of settings of last start (default settings before first start)
+     */
+    public static Config getConfig() {
+        return config.copy();
+    }
+    
+    /**
+     * @return frames per second of mixing
+     */
+    public static int getSampleRate() {
+        return config.getSampleRate();
+    }
+    
+    /**
+     * @return count of frames mixed at once
+     */
+    static int getPeriodSize() {
+        return config.getPeriodSize();
+    }
+    
+    /**
+     * @return count of sounds mixed at once in every line
+     */
+    static int getMaxSounds() {
+        return config.getMaxSounds();
+    }
+    
+    public static double getMasterVolume() {
+        return Bus.MASTER.getVolume();
+    }
+    
+    /**
+     * volume of all sounds (volume of {@link Bus#MASTER}). The sum of sounds is softly limited after it
+     * @param value from 0.0 to 1.0
+     */
+    public static void setMasterVolume(double value) {
+        Bus.MASTER.setVolume(value);
+    }
+    
+    /**
+     * turn on disk cache of decoded sounds. Sound buffers loaded from files are decoded only once
+     * and are loaded from cache later while source file isn't changed
+     * @param directory folder for cache or null for turn off cache
+     * @param maxSize max size of cache in bytes, least recently used sounds are removed
+     */
+    public static void setPcmCache(File directory, long maxSize) {
+        PCM_CACHE = (directory != null) ? new PcmDiskCache(directory, maxSize) : null;
+    }
+    
+    static PcmDiskCache getPcmCache() {
+        return PCM_CACHE;
+    }
+    
+    /**
+     * what sound to stop when all voices are busy
+     * @param policy policy of stealing (default {@link StealPolicy#LOWEST_PRIORITY})
+     */
+    public static void setStealPolicy(StealPolicy policy) {
+        MONO_SOUNDS.setStealPolicy(policy);
+        STEREO_SOUNDS.setStealPolicy(policy);
+    }
+    
+    public static StealPolicy getStealPolicy() {
+        return STEREO_SOUNDS.getStealPolicy();
+    }
+    
+    /**
+     * how far streamed sounds are decoded ahead in worker threads.
+     * Applied to sounds and musics created after call
+     * @param millis milliseconds of decoded sound (default 250)
+     */
+    public static void setPrefetchMillis(int millis) {
+        if (millis < 10) {
+            millis = 10;
+        }
+        prefetchMillis = millis;
+    }
+    
+    public static int getPrefetchMillis() {
+        return prefetchMillis;
+    }
+    
+    /**
+     * @return how many times streamed sounds weren't decoded in time and silence was played instead
+     */
+    public static long getUnderruns() {
+        return UNDERRUNS.get();
+    }
+    
+    /**
+     * @return snapshot of metrics: mixing time, fill of lines, underruns, stolen sounds...
+     * They are available by JMX as {@link SoundSystemMXBean} too
+     */
+    public static SoundMetrics getMetrics() {
+        SoundMixer stereo = STEREO_MIXER;
+        SoundMixer mono   = MONO_MIXER;
+        return new SoundMetrics((stereo != null) ? stereo.getMetrics().copy() : null,
+                                (mono   != null) ? mono.getMetrics().copy()   : null,
+                                UNDERRUNS.get(), 
+                                STEALS.get(), 
+                                DROPS.get(), 
+                                REJECTED.get(),
+                                DECODE_TIME.copy());
+    }
+    
+    static boolean isPlaying(SoundBasis sound) {
+        return (sound != null && sound.isPlaying());
     }
     
-    static void playSound(Sound sound) {
+    static void playSound(SoundBasis sound) {
+        playSound(sound, SoundList.NOW);
+    }
+    
+    /**
+     * @param frame frame of mixer clock or {@link SoundList#NOW}
+     */
+    static void playSound(SoundBasis sound, long frame) {
         if (sound != null) {
             /*if (isPlaying(sound)) {
                 return;
@@ -171,40 +400,90 @@ public final class SoundSystem {
             
             switch (sound.getChannels()) {
                 case 1 : 
-                    MONO_SOUNDS.add(sound);
+                    if (config.isSingleLine()) {
+                        STEREO_SOUNDS.add(sound, frame);
+                        LockSupport.unpark(STEREO_THREAD);
+                    } else {
+                        MONO_SOUNDS.add(sound, frame);
+                        LockSupport.unpark(MONO_THREAD);
+                    }
                     break;
                 case 2 :
-                    STEREO_SOUNDS.add(sound);
+                    STEREO_SOUNDS.add(sound, frame);
+                    LockSupport.unpark(STEREO_THREAD);
                     break;
             }
         }
     }
     
-    static void stopSound(Sound sound) {
+    static void stopSound(SoundBasis sound) {
+        stopSound(sound, SoundList.NOW);
+    }
+    
+    /**
+     * @param frame frame of mixer clock or {@link SoundList#NOW}
+     */
+    static void stopSound(SoundBasis sound, long frame) {
         if (sound != null/* && isPlaying(sound)*/) {               
             switch (sound.getChannels()) {
                 case 1 : 
-                    MONO_SOUNDS.remove(sound);
+                    if (config.isSingleLine()) {
+                        STEREO_SOUNDS.remove(sound, frame);
+                    } else {
+                        MONO_SOUNDS.remove(sound, frame);
+                    }
                     break;
                 case 2 :
-                    STEREO_SOUNDS.remove(sound);
+                    STEREO_SOUNDS.remove(sound, frame);
                     break;
             }
         }
     }
+    
+    /**
+     * frame of stereo line, which is played now. Clock of sound system counts frames of output 
+     * from start, it goes on while nothing is played too. 
+     * Difference between it and {@link #getMixerFrame()} is latency of output
+     * @return frame of output or 0 if system isn't started
+     */
+    public static long getOutputFrame() {
+        SoundMixer mixer = STEREO_MIXER;
+        return (mixer != null) ? mixer.getOutputFrame() : 0;
+    }
+    
+    /**
+     * @return frame of stereo line, which will be mixed next. Sounds planned before it start late
+     */
+    public static long getMixerFrame() {
+        SoundMixer mixer = STEREO_MIXER;
+        return (mixer != null) ? mixer.getFrame() : 0;
+    }
+    
+    /**
+     * clock of line of sound - lines have own clocks, when mono line is used
+     */
+    static long getOutputFrame(SoundBasis sound) {
+        SoundMixer mixer = (sound.getChannels() == 1 && !config.isSingleLine()) ? MONO_MIXER : STEREO_MIXER;
+        return (mixer != null) ? mixer.getOutputFrame() : 0;
+    }
+    
+    /**
+     * @return count of frames played by sound system for time
+     */
+    static long toFrames(long nanos) {
+        return (long) (nanos * (double) getSampleRate() / 1000000000L);
+    }
         
+    /**
+     * stop all sounds with short fade out
+     */
     public static void stopAll() {        
-        for (Music music : MUSICS) {
-            music.stop();
-        }
-        MUSICS.clear();
-        
-        MONO_SOUNDS.clear();
-        STEREO_SOUNDS.clear();
+        MONO_SOUNDS.stopAll();
+        STEREO_SOUNDS.stopAll();
     }
     
     static AudioFormat getAudioMonoFormat() {
-        return new AudioFormat(SAMPLE_RATE,
+        return new AudioFormat(getSampleRate(),
                                SAMPLE_SIZE_IN_BITS,
                                MONO_CHANNELS,
                                SIGNED,
@@ -212,7 +491,7 @@ public final class SoundSystem {
     }
     
     static AudioFormat getAudioStereoFormat() {
-        return new AudioFormat(SAMPLE_RATE,
+        return new AudioFormat(getSampleRate(),
                                SAMPLE_SIZE_IN_BITS,
                                STEREO_CHANNELS,
                                SIGNED,
@@ -237,7 +516,21 @@ public final class SoundSystem {
                 // получаем несжатый формат
                 if (inFormat != null) {
                     AudioFormat outFormat = (inFormat.getChannels() == 1) ? getAudioMonoFormat() : getAudioStereoFormat();
-                    return AudioSystem.getAudioInputStream(outFormat, in);                    
+                    int inRate = Math.round(inFormat.getSampleRate());
+                    if (inRate <= 0 || inRate == getSampleRate()) {
+                        return AudioSystem.getAudioInputStream(outFormat, in);
+                    }
+                    
+                    // декодируем с родной частотой, частоту меняем сами
+                    AudioFormat pcmFormat = new AudioFormat(inRate,
+                                                            SAMPLE_SIZE_IN_BITS,
+                                                            outFormat.getChannels(),
+                                                            SIGNED,
+                                                            BIG_ENDIAN);
+                    if (!inFormat.matches(pcmFormat)) {
+                        in = AudioSystem.getAudioInputStream(pcmFormat, in);
+                    }
+                    return Resampler.resample(in, getSampleRate(), config.getResampleQuality());
                 }
             } catch (Exception ex) {
                 LOG.log(Level.SEVERE, null, ex);
@@ -271,172 +564,29 @@ public final class SoundSystem {
         return null;
     }
     
-    /**
-     * update line without caching
-     * @param sounds list of sounds in system (mono or stereo)
-     * @param line line for write (mono or stereo)
-     */
-    private static void updateLine(final SoundList sounds, final SourceDataLine line) {            
-        final int channels = line.getFormat().getChannels();
-        final int bufferSize = channels * (SAMPLE_SIZE_IN_BITS >> 3);
-
-        final double[] mixer   = new double[bufferSize >> 1];
-        final int   [] counter = new int   [bufferSize];
-        final byte  [] result  = new byte  [bufferSize];
-        final byte  [] buffer  = new byte  [bufferSize];
-        double volume;
-        int cntReaded = 0;
-        int soundsCount = 0;
-
-        final Sound[] data = sounds.getSounds();
-        for (int s = 0; s < data.length; ++s) {
-            final Sound sound = data[s];
-            if (sound == null) {
-                break;
-            }
-
-            volume = sound.getVolume();
-            cntReaded = sound.read(buffer);
-
-            if (cntReaded > 0) {
-                if (volume > 0.0) {
-                    for (int i = 0, n = 0; i < cntReaded; i += 2, ++n) {
-                        int low  = buffer[i    ];
-                        int high = buffer[i + 1];
-
-                        int value = (short)(((high & 0xFF) << 8) | (low & 0xFF));
-
-                        if (volume < 1.0) {
-                            value *= volume;
-                        } 
-                        mixer[n] += value;      
-                        counter[n]++;
-                    }
-                    ++soundsCount;
-                }
-            } else if (cntReaded == -1) {
-                if (sound.isLooping()) {
-                    sound.rewind();
-                } else {
-                    sound.stop();
-                }
-            }
-        }
-
-        if (soundsCount > 0) {
-            // собираем средний звук
-            for (int i = 0, n = 0; i < mixer.length; n += 2, ++i) {
-                int value = (int) (mixer[i] / counter[i]);
-                result[n    ] = (byte) value;
-                result[n + 1] = (byte) (value >> 8);
-            }
-
-            // пытаемся записать
-            if (FAST_MODE) {
-                int offset = 0;
-                int cnt;
-                int maxSizeForWrite = channels * (SAMPLE_SIZE_IN_BITS >> 3);
-                int skips = 0;
-                while (offset < result.length && skips < MAX_WRITE_LINE_TRIES) {
-                    cnt = line.available();
-                    if (cnt > 0) {
-                        int sizeForWrite = Math.min(cnt, maxSizeForWrite);
-                        line.write(result, offset, sizeForWrite);
-                        offset += maxSizeForWrite;
-                    } else {
-                        ++skips;
-                    }
-                }
-            } else {
-                line.write(result, 0, result.length);
-            }
-        }
-    }
-    
-    /**
-     * update line with caching
-     * @param sounds list of sounds in system (mono or stereo)
-     * @param line line for write (mono or stereo)
-     */
-    private static void updateLine(final SoundList sounds, final SourceDataLine line, final SoundCache cache) {        
-        final int channels = line.getFormat().getChannels();
-        final int bufferSize = channels * (SAMPLE_SIZE_IN_BITS >> 3);
-
-        final double[] mixer   = new double[bufferSize >> 1];
-        final int   [] counter = new int   [bufferSize];
-        final byte  [] buffer  = new byte  [bufferSize];
-        double volume;
-        int cntReaded = 0;
-        int soundsCount = 0;
-
-        final Sound[] data = sounds.getSounds();
-        for (int s = 0; s < data.length; ++s) {
-            final Sound sound = data[s];
-            if (sound == null) {
-                break;
-            }
-
-            volume = sound.getVolume();
-            cntReaded = sound.read(buffer);
-
-            if (cntReaded > 0) {
-                if (volume > 0.0) {
-                    for (int i = 0, n = 0; i < cntReaded; i += 2, ++n) {
-                        int low  = buffer[i    ];
-                        int high = buffer[i + 1];
-
-                        int value = (short)(((high & 0xFF) << 8) | (low & 0xFF));
-
-                        if (volume < 1.0) {
-                            value *= volume;
-                        } 
-                        mixer[n] += value;      
-                        counter[n]++;
-                    }
-                    ++soundsCount;
-                }
-            } else if (cntReaded == -1) {
-                if (sound.isLooping()) {
-                    sound.rewind();
-                } else {
-                    sound.stop();
-                }
-            }
-        }
-
-        if (soundsCount > 0) {
-            // собираем средний звук
-            for (int i = 0; i < mixer.length; ++i) {
-                int value = (int) (mixer[i] / counter[i]);
-
-                // и сразу в кэш
-                cache.write((byte) value);
-                cache.write((byte) (value >> 8));
-            }
-        } else {
-            if (!cache.isEmpty()) {
-                cache.drain();
-            }
-        }       
-    }
-    
     private static void updateMonoLine() {        
-        if (MONO_LINE != null) {              
-            if (CACHED) {
-                updateLine(MONO_SOUNDS, MONO_LINE, MONO_CACHE);    
-            } else {
-                updateLine(MONO_SOUNDS, MONO_LINE);
-            }
+        SoundMixer mixer = MONO_MIXER;
+        if (mixer != null && !mixer.isIdle(MONO_SOUNDS)) {              
+            mixer.waitForLine();
+            mixer.update(MONO_SOUNDS);
+        } else if (mixer != null) {
+            mixer.idle();
+        } else {
+            // нечего играть - спим до playSound
+            LockSupport.park();
         }
     }
     
     private static void updateStereoLine() {
-        if (STEREO_LINE != null) {  
-            if (CACHED) {
-                updateLine(STEREO_SOUNDS, STEREO_LINE, STEREO_CACHE);
-            } else {
-                updateLine(STEREO_SOUNDS, STEREO_LINE);
-            }
+        SoundMixer mixer = STEREO_MIXER;
+        if (mixer != null && !mixer.isIdle(STEREO_SOUNDS)) {  
+            mixer.waitForLine();
+            mixer.update(STEREO_SOUNDS);
+        } else if (mixer != null) {
+            mixer.idle();
+        } else {
+            // нечего играть - спим до playSound
+            LockSupport.park();
         }
     }
         
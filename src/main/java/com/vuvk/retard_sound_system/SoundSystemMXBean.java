@@ -0,0 +1,55 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * metrics of sound system for JMX. Registered as "com.vuvk.retard_sound_system:type=SoundSystem" while system is started
+ * @author vuvk
+ */
+public interface SoundSystemMXBean {
+    int getVoices();
+
+    long getMixedPeriods();
+
+    double getMixTimeMeanNanos();
+
+    long getMixTimeP99Nanos();
+
+    long getMixTimeMaxNanos();
+
+    /** nanoseconds of one period for comparing with mixing time */
+    long getPeriodNanos();
+
+    double getLineFillMeanBytes();
+
+    long getLineFillP1Bytes();
+
+    long getStarvations();
+
+    int getTargetFillBytes();
+
+    long getUnderruns();
+
+    long getSteals();
+
+    long getDrops();
+
+    long getRejected();
+
+    double getDecodeTimeMeanNanos();
+
+    long getDecodeTimeP99Nanos();
+}
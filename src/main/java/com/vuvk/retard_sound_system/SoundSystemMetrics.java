@@ -0,0 +1,142 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * JMX view of {@link SoundSystem#getMetrics()}. Lines are summed, times are of the worst line
+ * @author vuvk
+ */
+class SoundSystemMetrics implements SoundSystemMXBean {
+    private LineMetrics[] getLines() {
+        SoundMetrics metrics = SoundSystem.getMetrics();
+        if (metrics.getMonoLine() != null && metrics.getStereoLine() != null) {
+            return new LineMetrics[] { metrics.getStereoLine(), metrics.getMonoLine() };
+        } else if (metrics.getStereoLine() != null) {
+            return new LineMetrics[] { metrics.getStereoLine() };
+        }
+        return new LineMetrics[0];
+    }
+
+    @Override
+    public int getVoices() {
+        int voices = 0;
+        for (LineMetrics line : getLines()) {
+            voices += line.getVoices();
+        }
+        return voices;
+    }
+
+    @Override
+    public long getMixedPeriods() {
+        long periods = 0;
+        for (LineMetrics line : getLines()) {
+            periods += line.getMixTime().getCount();
+        }
+        return periods;
+    }
+
+    @Override
+    public double getMixTimeMeanNanos() {
+        double mean = 0.0;
+        for (LineMetrics line : getLines()) {
+            mean = Math.max(mean, line.getMixTime().getMean());
+        }
+        return mean;
+    }
+
+    @Override
+    public long getMixTimeP99Nanos() {
+        long time = 0;
+        for (LineMetrics line : getLines()) {
+            time = Math.max(time, line.getMixTime().getPercentile(99.0));
+        }
+        return time;
+    }
+
+    @Override
+    public long getMixTimeMaxNanos() {
+        long time = 0;
+        for (LineMetrics line : getLines()) {
+            time = Math.max(time, line.getMixTime().getMax());
+        }
+        return time;
+    }
+
+    @Override
+    public long getPeriodNanos() {
+        return (long) SoundSystem.getPeriodSize() * 1000000000L / SoundSystem.getSampleRate();
+    }
+
+    @Override
+    public double getLineFillMeanBytes() {
+        LineMetrics[] lines = getLines();
+        return (lines.length > 0) ? lines[0].getFill().getMean() : 0.0;
+    }
+
+    @Override
+    public long getLineFillP1Bytes() {
+        LineMetrics[] lines = getLines();
+        return (lines.length > 0) ? lines[0].getFill().getPercentile(1.0) : 0;
+    }
+
+    @Override
+    public long getStarvations() {
+        long starvations = 0;
+        for (LineMetrics line : getLines()) {
+            starvations += line.getStarvations();
+        }
+        return starvations;
+    }
+
+    @Override
+    public int getTargetFillBytes() {
+        int fill = 0;
+        for (LineMetrics line : getLines()) {
+            fill = Math.max(fill, line.getTargetFill());
+        }
+        return fill;
+    }
+
+    @Override
+    public long getUnderruns() {
+        return SoundSystem.UNDERRUNS.get();
+    }
+
+    @Override
+    public long getSteals() {
+        return SoundSystem.STEALS.get();
+    }
+
+    @Override
+    public long getDrops() {
+        return SoundSystem.DROPS.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return SoundSystem.REJECTED.get();
+    }
+
+    @Override
+    public double getDecodeTimeMeanNanos() {
+        return SoundSystem.DECODE_TIME.getMean();
+    }
+
+    @Override
+    public long getDecodeTimeP99Nanos() {
+        return SoundSystem.DECODE_TIME.getPercentile(99.0);
+    }
+}
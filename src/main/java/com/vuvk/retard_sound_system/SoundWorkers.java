@@ -0,0 +1,216 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * background threads for work, which must not be done in mixer threads (opening of files, decoding)
+ * @author vuvk
+ */
+final class SoundWorkers {
+    /** count of threads decoding streams ahead */
+    static final int DECODE_THREADS = 2;
+    /** how often decoders look at registered streams without waking */
+    private static final long DECODE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "RSS Worker Thread " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Object LOCK = new Object();
+    /**
+     * streams decoded ahead, array is replaced on every change.
+     * References are weak - sounds dropped without close() are forgotten by decoders
+     */
+    private static volatile WeakReference<PrefetchBuffer>[] PREFETCHES = newPrefetches(0);
+    private static volatile Thread[] DECODERS = new Thread[0];
+
+    private SoundWorkers() {}
+
+    static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * start decoding of stream ahead
+     */
+    static void register(PrefetchBuffer prefetch) {
+        synchronized (LOCK) {
+            WeakReference<PrefetchBuffer>[] prefetches = Arrays.copyOf(PREFETCHES, PREFETCHES.length + 1);
+            prefetches[prefetches.length - 1] = new WeakReference<>(prefetch);
+            PREFETCHES = prefetches;
+
+            if (DECODERS.length == 0) {
+                createDecoders();
+            }
+        }
+        wake();
+    }
+
+    /**
+     * stop decoding of stream ahead and wait while worker uses it
+     */
+    static void unregister(PrefetchBuffer prefetch) {
+        synchronized (LOCK) {
+            WeakReference<PrefetchBuffer>[] prefetches = PREFETCHES;
+            for (int i = 0; i < prefetches.length; ++i) {
+                if (prefetches[i].get() == prefetch) {
+                    WeakReference<PrefetchBuffer>[] rest = newPrefetches(prefetches.length - 1);
+                    System.arraycopy(prefetches, 0, rest, 0, i);
+                    System.arraycopy(prefetches, i + 1, rest, i, rest.length - i);
+                    PREFETCHES = rest;
+                    break;
+                }
+            }
+        }
+        prefetch.close();
+    }
+
+    /**
+     * forget streams of sounds collected by GC
+     */
+    private static void removeCollected() {
+        synchronized (LOCK) {
+            WeakReference<PrefetchBuffer>[] prefetches = PREFETCHES;
+            WeakReference<PrefetchBuffer>[] rest = newPrefetches(prefetches.length);
+            int alive = 0;
+            for (int i = 0; i < prefetches.length; ++i) {
+                if (prefetches[i].get() != null) {
+                    rest[alive++] = prefetches[i];
+                }
+            }
+            PREFETCHES = Arrays.copyOf(rest, alive);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WeakReference<PrefetchBuffer>[] newPrefetches(int size) {
+        return (WeakReference<PrefetchBuffer>[]) new WeakReference<?>[size];
+    }
+
+    /**
+     * @return count of streams decoded ahead
+     */
+    static int getPrefetchCount() {
+        return PREFETCHES.length;
+    }
+
+    /**
+     * decoders look at streams right now. Doesn't allocate memory
+     */
+    static void wake() {
+        final Thread[] decoders = DECODERS;
+        for (int i = 0; i < decoders.length; ++i) {
+            LockSupport.unpark(decoders[i]);
+        }
+    }
+
+    /**
+     * start decoders after {@link #stopDecoders()} if there are streams for decoding
+     */
+    static void startDecoders() {
+        synchronized (LOCK) {
+            if (DECODERS.length == 0 && PREFETCHES.length > 0) {
+                createDecoders();
+            }
+        }
+    }
+
+    /**
+     * stop decoders and wait for them. Registered streams are decoded again after {@link #startDecoders()}
+     * or registration of new stream
+     */
+    static void stopDecoders() {
+        final Thread[] decoders;
+        synchronized (LOCK) {
+            decoders = DECODERS;
+            DECODERS = new Thread[0];
+        }
+        for (Thread decoder : decoders) {
+            LockSupport.unpark(decoder);
+            try {
+                decoder.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * decode ahead all registered streams in current thread. 
+     * Body of decoder, also for benchmarks with stopped decoders
+     * @return true if something was done
+     */
+    static boolean fillPrefetches() {
+        boolean worked = false;
+        boolean collected = false;
+        final WeakReference<PrefetchBuffer>[] prefetches = PREFETCHES;
+        for (int p = 0; p < prefetches.length; ++p) {
+            final PrefetchBuffer prefetch = prefetches[p].get();
+            if (prefetch == null) {
+                collected = true;
+            } else if (prefetch.fill()) {
+                worked = true;
+            }
+        }
+        if (collected) {
+            removeCollected();
+        }
+        return worked;
+    }
+
+    private static void createDecoders() {
+        final Thread[] decoders = new Thread[DECODE_THREADS];
+        for (int i = 0; i < decoders.length; ++i) {
+            decoders[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // потоки работают, пока их не заменили или не остановили
+                    while (DECODERS == decoders) {
+                        boolean worked = fillPrefetches();
+                        if (PREFETCHES.length == 0) {
+                            // нечего декодировать - спим до регистрации потока
+                            LockSupport.park();
+                        } else if (!worked) {
+                            LockSupport.parkNanos(DECODE_INTERVAL);
+                        }
+                    }
+                }
+            }, "RSS Decode Thread " + (i + 1));
+            decoders[i].setDaemon(true);
+        }
+        DECODERS = decoders;
+        for (Thread decoder : decoders) {
+            decoder.start();
+        }
+    }
+}
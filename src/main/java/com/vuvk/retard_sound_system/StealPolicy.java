@@ -0,0 +1,32 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+/**
+ * what sound stops when all voices are busy and new sound is played.
+ * Sounds with bigger priority than new sound are never stopped
+ * @author vuvk
+ */
+public enum StealPolicy {
+    /** new sound is not played */
+    NONE,
+    /** stop the sound that was started earliest */
+    OLDEST,
+    /** stop the sound with the lowest volume */
+    QUIETEST,
+    /** stop the sound with the lowest priority (the oldest one of them) */
+    LOWEST_PRIORITY
+}
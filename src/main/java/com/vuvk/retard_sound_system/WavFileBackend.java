@@ -0,0 +1,140 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * writes mixed sound to wav-file as fast as it is mixed.
+ * Mono output (when {@link Config#setSingleLine(boolean)} is off) is written to file with ".mono" before extension
+ * @author vuvk
+ */
+public class WavFileBackend implements AudioBackend {
+    private static final Logger LOG = Logger.getLogger(WavFileBackend.class.getName());
+    private static final int HEADER_SIZE = 44;
+
+    private final File file;
+
+    /**
+     * @param file wav-file for stereo output, it is overwritten
+     */
+    public WavFileBackend(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public AudioOutput open(AudioFormat format) throws IOException {
+        File target = file;
+        if (format.getChannels() == 1) {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            name = (dot > 0) ? name.substring(0, dot) + ".mono" + name.substring(dot) : name + ".mono";
+            target = new File(file.getAbsoluteFile().getParentFile(), name);
+        }
+        return new WavOutput(target, format);
+    }
+
+    private static class WavOutput implements AudioOutput {
+        private final AudioFormat format;
+        private final RandomAccessFile out;
+        private long dataSize = 0;
+
+        WavOutput(File file, AudioFormat format) throws IOException {
+            this.format = format;
+            out = new RandomAccessFile(file, "rw");
+            out.setLength(0);
+            // заголовок дописывается при закрытии, когда известен размер
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public int available() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            try {
+                out.write(data, offset, length);
+                dataSize += length;
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+            try {
+                writeHeader();
+                out.close();
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+
+        private void writeHeader() throws IOException {
+            final int channels = format.getChannels();
+            final int sampleRate = (int) format.getSampleRate();
+            final int frameSize = format.getFrameSize();
+
+            out.seek(0);
+            out.writeBytes("RIFF");
+            writeInt((int) (HEADER_SIZE - 8 + dataSize));
+            out.writeBytes("WAVE");
+            out.writeBytes("fmt ");
+            writeInt(16);
+            writeShort(1);
+            writeShort(channels);
+            writeInt(sampleRate);
+            writeInt(sampleRate * frameSize);
+            writeShort(frameSize);
+            writeShort(format.getSampleSizeInBits());
+            out.writeBytes("data");
+            writeInt((int) dataSize);
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value);
+            out.write(value >> 8);
+            out.write(value >> 16);
+            out.write(value >> 24);
+        }
+
+        private void writeShort(int value) throws IOException {
+            out.write(value);
+            out.write(value >> 8);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Like FastByteArrayInputStream, but reads from ByteBuffer (direct or mapped).
+ * Uses position of buffer, so give it own duplicate of shared buffer
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+    private int mark;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.mark = buffer.position();
+    }
+
+    public int read() {
+        return buffer.hasRemaining()        ? 
+               (buffer.get() & 0xff) : 
+               -1;
+    }
+
+    public int read(byte[] buffer, int offset, int length) {
+        if (buffer == null) {
+            throw new NullPointerException();
+        } else if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int available = this.buffer.remaining();
+        if (available <= 0) {
+            return -1;
+        }
+
+        if (length > available) {
+            length = available;
+        }
+        if (length <= 0) {
+            return 0;
+        }
+
+        this.buffer.get(buffer, offset, length);
+        return length;
+    }
+
+    @Override
+    public long skip(long num) {
+        long available = buffer.remaining();
+        if (num <= available) {
+            if (num >= 0) {
+                buffer.position(buffer.position() + (int) num);
+                return num;
+            }
+        }
+
+        return 0;
+    }
+
+    public int available() {
+        return buffer.remaining();
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void mark(int limit) {
+        mark = buffer.position();
+    }
+
+    public void reset() {
+        buffer.position(mark);
+    }
+}
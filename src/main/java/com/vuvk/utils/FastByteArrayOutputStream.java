@@ -0,0 +1,109 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Growable byte array like java.io.ByteArrayOutputStream without synchronizing.
+ * Gives access to inner buffer without copying
+ */
+public final class FastByteArrayOutputStream extends OutputStream {
+
+    private byte[] buffer;
+    private int count = 0;
+
+    public FastByteArrayOutputStream() {
+        this(4096);
+    }
+
+    public FastByteArrayOutputStream(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.buffer = new byte[capacity];
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new OutOfMemoryError();
+        }
+        if (capacity > buffer.length) {
+            // растём в полтора раза
+            int newCapacity = buffer.length + (buffer.length >> 1);
+            if (newCapacity < capacity || newCapacity < 0) {
+                newCapacity = capacity;
+            }
+            byte[] newBuffer = new byte[newCapacity];
+            Utils.arrayFastCopy(buffer, 0, newBuffer, 0, count);
+            buffer = newBuffer;
+        }
+    }
+
+    public void write(int value) {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) value;
+    }
+
+    public void write(byte[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureCapacity(count + length);
+        Utils.arrayFastCopy(buffer, offset, this.buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * read from stream straight to inner buffer, it grows only if it is full
+     * @return count of readed bytes or -1 if stream is ended
+     */
+    public int readFrom(InputStream in) throws IOException {
+        if (count == buffer.length) {
+            ensureCapacity(count + 1);
+        }
+
+        int readed = in.read(buffer, count, buffer.length - count);
+        if (readed > 0) {
+            count += readed;
+        }
+        return readed;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return inner buffer, only first {@link #size()} bytes are valid
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = new byte[count];
+        Utils.arrayFastCopy(buffer, 0, result, 0, count);
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * checks that mixing of periods doesn't allocate memory after warm-up
+ * @author vuvk
+ */
+public class MixerAllocationTest {
+    static final int WARMUP_PERIODS = 20000;
+    static final int MEASURED_PERIODS = 10000;
+
+    public static void main(String[] args) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        boolean ok = true;
+        for (int channels = 1; channels <= 2; ++channels) {
+            SoundBuffer buffer = new SoundBuffer(new ByteArrayInputStream(createWave(channels, 0.25)));
+            SoundList sounds = new SoundList();
+            for (int i = 0; i < 8; ++i) {
+                Sound sound = new Sound(buffer);
+                sound.setLooping(true);
+                sound.setVolume(1.0 - i * 0.1);
+                if (i % 2 == 1) {
+                    // дробный курсор тоже не должен выделять память
+                    sound.setPitch(0.5 + i * 0.25);
+                }
+                sounds.add(sound);
+            }
+
+            SoundMixer mixer = new SoundMixer(channels, SoundSystem.PERIOD_SIZE);
+            for (int i = 0; i < WARMUP_PERIODS; ++i) {
+                mixer.mix(sounds);
+            }
+
+            // сколько выделяет само измерение
+            long overhead = threads.getThreadAllocatedBytes(threadId);
+            overhead = threads.getThreadAllocatedBytes(threadId) - overhead;
+
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_PERIODS; ++i) {
+                mixer.mix(sounds);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+            System.out.println(channels + " channel(s): " + allocated + " bytes allocated for " + MEASURED_PERIODS + " periods");
+            if (allocated > 0) {
+                ok = false;
+            }
+        }
+
+        if (!ok) {
+            System.out.println("FAILED: mixing allocates memory");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /** sine wave in wav format */
+    static byte[] createWave(int channels, double seconds) throws IOException {
+        AudioFormat format = (channels == 1) ? SoundSystem.getAudioMonoFormat() : SoundSystem.getAudioStereoFormat();
+        int frames = (int) (format.getSampleRate() * seconds);
+        byte[] pcm = new byte[frames * format.getFrameSize()];
+        for (int f = 0, i = 0; f < frames; ++f) {
+            short value = (short) (Math.sin(f * 2.0 * Math.PI * 440.0 / format.getSampleRate()) * 16000);
+            for (int c = 0; c < channels; ++c) {
+                pcm[i++] = (byte) value;
+                pcm[i++] = (byte) (value >> 8);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, frames), AudioFileFormat.Type.WAVE, out);
+        return out.toByteArray();
+    }
+}
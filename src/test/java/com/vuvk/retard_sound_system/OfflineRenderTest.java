@@ -0,0 +1,121 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * checks that whole pipeline works without sound card and faster than realtime
+ * @author vuvk
+ */
+public class OfflineRenderTest {
+    static final double SECONDS = 2.0;
+    /** how much faster than realtime mixing must be at least after warm up (JIT, first access to JMX) */
+    static final double MIN_SPEED = 30.0;
+
+    public static void main(String[] args) throws IOException, UnsupportedAudioFileException, InterruptedException {
+        SoundBuffer buffer = new SoundBuffer(new ByteArrayInputStream(MixerAllocationTest.createWave(2, SECONDS)));
+        boolean ok = true;
+
+        // первый прогон - прогрев, его время не считается
+        render(new MemoryBackend(), buffer);
+        MemoryBackend memory = new MemoryBackend();
+        double seconds = render(memory, buffer);
+        byte[] mixed = memory.getBytes();
+        System.out.println("memory: " + mixed.length + " bytes, " + (int) (SECONDS / seconds) + "x realtime");
+        if (mixed.length < buffer.getLength() || SECONDS / seconds < MIN_SPEED || isSilent(mixed)) {
+            ok = false;
+        }
+        if (!containsExactly(mixed, buffer)) {
+            System.out.println("single voice isn't mixed bit-exact");
+            ok = false;
+        }
+
+        File file = File.createTempFile("rss", ".wav");
+        file.deleteOnExit();
+        render(new WavFileBackend(file), buffer);
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            long bytes = in.getFrameLength() * in.getFormat().getFrameSize();
+            System.out.println("wav: " + bytes + " bytes");
+            if (bytes != mixed.length) {
+                ok = false;
+            }
+        }
+
+        if (!ok) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * @return seconds of rendering
+     */
+    static double render(AudioBackend backend, SoundBuffer buffer) throws InterruptedException {
+        SoundSystem.start(backend);
+        long start = System.nanoTime();
+        Sound sound = new Sound(buffer);
+        sound.play();
+        while (sound.isPlaying()) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        SoundSystem.stop();
+        return seconds;
+    }
+
+    /**
+     * one voice with full volume must not be changed by mixer
+     */
+    static boolean containsExactly(byte[] mixed, SoundBuffer buffer) {
+        byte[] expected = new byte[buffer.getLength()];
+        buffer.getData().get(expected);
+        // начало звука в микшере - по первому ненулевому байту
+        int start = firstSound(mixed) - firstSound(expected);
+        if (start < 0 || mixed.length - start < expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; ++i) {
+            if (mixed[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int firstSound(byte[] data) {
+        int index = 0;
+        while (index < data.length && data[index] == 0) {
+            ++index;
+        }
+        return index;
+    }
+
+    static boolean isSilent(byte[] data) {
+        for (byte value : data) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
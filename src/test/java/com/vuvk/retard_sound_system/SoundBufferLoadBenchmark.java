@@ -0,0 +1,103 @@
+/**
+    Copyright 2019 Anton "Vuvk" Shcherbatykh
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.vuvk.retard_sound_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * compares loading of SoundBuffer with old loading through List&lt;Byte&gt;
+ * @author vuvk
+ */
+public class SoundBufferLoadBenchmark {
+    static final double SECONDS = 60.0;
+    static final int WARMUP = 3;
+    static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        final byte[] wave = MixerAllocationTest.createWave(2, SECONDS);
+        System.out.println("wave size: " + (wave.length >> 10) + " KB");
+
+        measure("List<Byte>  ", new Loader() {
+            @Override
+            public int load(InputStream in) throws IOException {
+                return loadWithList(in).length;
+            }
+        }, wave);
+
+        measure("SoundBuffer ", new Loader() {
+            @Override
+            public int load(InputStream in) throws IOException {
+                return new SoundBuffer(in).getAudioInputStream().available();
+            }
+        }, wave);
+    }
+
+    interface Loader {
+        int load(InputStream in) throws IOException;
+    }
+
+    static void measure(String name, Loader loader, byte[] wave) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP; ++i) {
+            loader.load(new ByteArrayInputStream(wave));
+        }
+
+        long size = 0;
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long time = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            size += loader.load(new ByteArrayInputStream(wave));
+        }
+        time = System.nanoTime() - time;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        System.out.println(name + ": " +
+                           (time / ITERATIONS / 1000000) + " ms, " +
+                           (allocated / ITERATIONS >> 20) + " MB allocated per load (" +
+                           (size / ITERATIONS >> 20) + " MB of PCM)");
+    }
+
+    /** old implementation of SoundBuffer.load */
+    static byte[] loadWithList(InputStream inputStream) throws IOException {
+        AudioInputStream stream = SoundSystem.getEncodedAudioInputStream(inputStream);
+
+        List<Byte> buf = new ArrayList<>(inputStream.available());
+        int n;
+        int bufferSize = 0;
+        byte[] readed = new byte[65535];
+        while ((n = stream.read(readed)) != -1) {
+            bufferSize += n;
+            for (int i = 0; i < n; ++i) {
+                buf.add(readed[i]);
+            }
+        }
+
+        byte[] buffer = new byte[bufferSize];
+        for (n = 0; n < bufferSize; ++n) {
+            buffer[n] = buf.get(n);
+        }
+        buf.clear();
+        return buffer;
+    }
+}